@@ -10,15 +10,21 @@
 // solutions.
 package jump61;
 
-import afu.org.checkerframework.checker.igj.qual.I;
 
 import javax.swing.text.Position;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.PrimitiveIterator;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static jump61.Side.*;
+import static jump61.GameException.error;
 
 /** An automated Player.
  *  @author P. N. Hilfinger, Tianyi Xu
@@ -31,7 +37,24 @@ class AI extends Player {
     AI(Game game, Side color, long seed) {
         super(game, color);
         _random = new Random(seed);
-        foundMoves = new ArrayList<>();
+        if (Evaluator.getDefault() != null) {
+            _evaluator = new Evaluator(Evaluator.getDefault().weights());
+        }
+        _network = TupleNetwork.getDefault();
+        _work.setNetwork(_network);
+        setFutility(FUTILITY_DEPTH, -1);
+        _cache = PositionCache.getDefault();
+        if (_cache != null && _cache.evaluation() != evaluation()) {
+            _cache = null;
+        }
+    }
+
+    /** An AI playing COLOR that is not attached to any Game, for searching
+     *  positions handed to searchPosition directly (as in engine mode).
+     *  Its getMove must not be called.  SEED is as for AI(GAME, COLOR,
+     *  SEED). */
+    AI(Side color, long seed) {
+        this(null, color, seed);
     }
 
     @Override
@@ -39,84 +62,628 @@ class AI extends Player {
         Board board = getGame().getBoard();
 
         assert getSide() == board.whoseMove();
-        int choice = searchForMove();
+        long start = System.nanoTime();
+        int choice = pooledSearch();
+        Metrics.AI_MOVE_SECONDS.record(System.nanoTime() - start);
         getGame().reportMove(board.row(choice), board.col(choice));
         return String.format("%d %d", board.row(choice), board.col(choice));
     }
 
+    /** Return searchForMove(), running it on my game's search pool if it
+     *  has one.  The calling thread just waits, which is cheap when it is
+     *  a session's virtual thread.  If the pool has been shut down, or the
+     *  calling thread is interrupted while waiting (as by
+     *  SessionEngine.shutdown), cancels the search and throws a
+     *  GameException, leaving the thread's interrupt status set. */
+    private int pooledSearch() {
+        ExecutorService pool = getGame().searchPool();
+        if (pool == null) {
+            return searchForMove();
+        }
+        Future<Integer> search;
+        try {
+            search = pool.submit(this::searchForMove);
+        } catch (RejectedExecutionException excp) {
+            throw error("search pool is shut down");
+        }
+        try {
+            return search.get();
+        } catch (InterruptedException excp) {
+            search.cancel(true);
+            Thread.currentThread().interrupt();
+            throw error("search interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new Error(excp.getCause());
+        }
+    }
+
     /** Return a move after searching the game tree to DEPTH>0 moves
-     *  from the current position. Assumes the game is not over. */
+     *  from the current position. Assumes the game is not over.  Throws
+     *  a GameException if my thread is interrupted during the search. */
     private int searchForMove() {
-        Board work = new Board(getBoard());
+        FlightEvents.Search event = new FlightEvents.Search();
+        event.begin();
+        Board work = _work;
         int value;
-        ArrayList<Integer> foundMoves = new ArrayList<>();
+        work.copyFrom(getBoard());
+        long start = System.nanoTime();
         assert getSide() == work.whoseMove();
         _foundMove = -1;
+        _stopped = _aborted = _limited = false;
+        _qNodes = 0;
+        _nodes = _reduced = _probes = _hits = 0;
+        allocate(work.size(), SEARCH_DEPTH);
 
+        long entry = rootEntry(work, SEARCH_DEPTH);
+        if (entry != PositionCache.MISSING) {
+            _foundMove = cachedMove(work, entry);
+            recordSearch(PositionCache.depth(entry),
+                         PositionCache.value(entry), _foundMove,
+                         System.nanoTime() - start);
+            finish(event, work);
+            return _foundMove;
+        }
+        if (looksDecisive(work) && solve(work) == Solver.WIN) {
+            recordSearch(SEARCH_DEPTH,
+                         getSide() == RED ? WINNNING_VAl : -WINNNING_VAl,
+                         _foundMove, System.nanoTime() - start);
+            finish(event, work);
+            return _foundMove;
+        }
         if (getSide() == RED) {
-            value = minMax(work, 4, true, 1, -Integer.MAX_VALUE, Integer.MAX_VALUE);
-            } else {
-            value = minMax(work, 4, true, -1, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            value = minMax(work, SEARCH_DEPTH, 0, 1,
+                           -Integer.MAX_VALUE, Integer.MAX_VALUE);
+        } else {
+            value = minMax(work, SEARCH_DEPTH, 0, -1,
+                           -Integer.MAX_VALUE, Integer.MAX_VALUE);
         }
-
+        if (_aborted) {
+            finish(event, work);
+            throw error("search interrupted");
+        }
+        recordSearch(SEARCH_DEPTH, value, _foundMove,
+                     System.nanoTime() - start);
+        saveRoot(work, SEARCH_DEPTH, value, _foundMove);
+        finish(event, work);
         return _foundMove;
     }
 
+    /** Add the counts from my last search to Metrics, and end EVENT,
+     *  begun at the start of that search of WORK, recording it if it is
+     *  wanted. */
+    private void finish(FlightEvents.Search event, Board work) {
+        Metrics.SEARCH_NODES.add(_nodes);
+        Metrics.TABLE_PROBES.add(_probes);
+        Metrics.TABLE_HITS.add(_hits);
+        event.end();
+        if (event.shouldCommit()) {
+            event.player = getSide().toString();
+            event.depth = _lastDepth;
+            event.value = _lastValue;
+            event.nodes = _nodes;
+            event.probes = _probes;
+            event.hits = _hits;
+            event.hitRate = _probes == 0 ? 0.0 : (double) _hits / _probes;
+            event.position = PositionCodec.toText(work);
+            event.commit();
+        }
+    }
+
+    /** Search POSITION, in which it must be my move, by iterative
+     *  deepening to at most MAXDEPTH plies, stopping early when stop() is
+     *  called or the limits last set by limit are exceeded.  After each
+     *  depth is completed, reports it to PROGRESS, if not null.  Returns
+     *  the best move (a square number) from the deepest completed depth,
+     *  or -1 if the game is over on POSITION.  Each depth after the first
+     *  starts with an aspiration window of ASPIRATION_WINDOW around the
+     *  previous depth's value, widening it until the value falls inside. */
+    int searchPosition(Board position, int maxDepth, Progress progress) {
+        FlightEvents.Search event = new FlightEvents.Search();
+        event.begin();
+        Board work = _work;
+        work.copyFrom(position);
+        int sense = getSide() == RED ? 1 : -1;
+        int best, previous;
+        long start = System.nanoTime();
+        assert getSide() == work.whoseMove();
+        _aborted = false;
+        _nodes = _reduced = _probes = _hits = 0;
+        best = -1;
+        if (work.getWinner() != null) {
+            return best;
+        }
+        allocate(work.size(), maxDepth);
+        findVaildPos(work, getSide(), _moves[0]);
+        best = _moves[0][0];
+        previous = 0;
+        int first = 1;
+        long entry = rootEntry(work, CACHE_DEPTH);
+        if (entry != PositionCache.MISSING) {
+            best = cachedMove(work, entry);
+            previous = PositionCache.value(entry);
+            first = PositionCache.depth(entry) + 1;
+            recordSearch(first - 1, previous, best,
+                         System.nanoTime() - start);
+            if (progress != null) {
+                progress.depthDone(first - 1, previous, best, _nodes,
+                                   System.nanoTime() - start);
+            }
+            if (Math.abs(previous) == WINNNING_VAl) {
+                first = maxDepth + 1;
+            }
+        }
+        for (int depth = first; depth <= maxDepth; depth += 1) {
+            int value, window;
+            window = depth == 1 || Math.abs(previous) >= WINNNING_VAl
+                ? 0 : ASPIRATION_WINDOW;
+            while (true) {
+                int alpha = -Integer.MAX_VALUE, beta = Integer.MAX_VALUE;
+                if (window > 0) {
+                    alpha = previous - window;
+                    beta = previous + window;
+                }
+                _foundMove = -1;
+                _qNodes = 0;
+                value = minMax(work, depth, 0, sense, alpha, beta);
+                if (_aborted || (value > alpha && value < beta)) {
+                    break;
+                }
+                window = window >= WINNNING_VAl / 2 ? 0 : 2 * window;
+            }
+            if (_aborted) {
+                break;
+            }
+            if (_foundMove != -1) {
+                best = _foundMove;
+            }
+            previous = value;
+            recordSearch(depth, value, best, System.nanoTime() - start);
+            saveRoot(work, depth, value, best);
+            if (progress != null) {
+                progress.depthDone(depth, value, best, _nodes,
+                                   System.nanoTime() - start);
+            }
+            if (Math.abs(value) == WINNNING_VAl) {
+                break;
+            }
+        }
+        _limited = false;
+        finish(event, work);
+        return best;
+    }
+
+    /** Limit the current or next call of searchPosition to NODES nodes and
+     *  to finishing by System.nanoTime() DEADLINE.  Long.MAX_VALUE for
+     *  either means no limit.  The limits are cleared when that search
+     *  finishes.  Calling limit before a search also cancels any earlier
+     *  stop(), which may otherwise arrive before the search starts. */
+    void limit(long nodes, long deadline) {
+        _stopped = false;
+        _nodeLimit = nodes;
+        _deadline = deadline;
+        _limited = nodes != Long.MAX_VALUE || deadline != Long.MAX_VALUE;
+    }
+
+    /** Make the current call of searchPosition, if any, return as soon as
+     *  possible. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Forget what earlier searches have stored in my transposition
+     *  table, and reseed my tie-breaking with SEED, so that my next search
+     *  does not depend on what I searched before. */
+    void reset(long seed) {
+        _random.setSeed(seed);
+        if (_table != null) {
+            _table.clear();
+        }
+    }
+
+    /** Return the value found by the last completed depth of my last
+     *  search (positive favoring Red). */
+    int lastValue() {
+        return _lastValue;
+    }
+
+    /** Return my static evaluation of BOARD (positive favoring Red, and
+     *  +/-WINNNING_VAl for a won position). */
+    int evaluate(Board board) {
+        return staticEval(board, WINNNING_VAl);
+    }
+
+    /** Return the number of nodes visited by the last search. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the principal variation (expected line of play, as square
+     *  numbers) found by the deepest completed depth of my last search,
+     *  starting with the move chosen.  Empty if there has been none. */
+    int[] principalVariation() {
+        return _lastPV.clone();
+    }
+
+    /** Return a one-line summary of my last search, describing its moves
+     *  as on BOARD, or null if I have not searched. */
+    String searchSummary(Board board) {
+        if (_lastPV.length == 0) {
+            return null;
+        }
+        StringBuilder pv = new StringBuilder();
+        for (int n : _lastPV) {
+            pv.append(pv.length() == 0 ? "" : ", ")
+                .append(board.moveString(n));
+        }
+        return String.format("depth %d, value %d, %d nodes, %d ms, pv %s",
+                             _lastDepth, _lastValue, _nodes,
+                             _lastElapsed / 1_000_000, pv);
+    }
+
+    /** Record the results of a completed search to DEPTH that found MOVE
+     *  with value VALUE after ELAPSED nanoseconds, together with the
+     *  current principal variation. */
+    private void recordSearch(int depth, int value, int move, long elapsed) {
+        _lastDepth = depth;
+        _lastValue = value;
+        _lastElapsed = elapsed;
+        if (move == -1) {
+            _lastPV = new int[0];
+        } else if (_pvLength[0] > 0 && _pv[0][0] == move) {
+            _lastPV = Arrays.copyOf(_pv[0], _pvLength[0]);
+        } else {
+            _lastPV = new int[] { move };
+        }
+    }
+
+    /** Make sure that my move buffers and principal-variation table are
+     *  big enough for a search to DEPTH on an N x N board.  Nothing else
+     *  is allocated during a search. */
+    private void allocate(int N, int depth) {
+        if (_tableBits > 0 && _table == null) {
+            _table = new TranspositionTable(_tableBits);
+        }
+        if (_moves.length <= depth || _scratch.length != N * N) {
+            _moves = new int[depth + 1][N * N];
+            _qMoves = new int[QUIESCENCE_DEPTH][N * N];
+            _scratch = new int[N * N];
+            _ties = new int[N * N];
+            _tieLines = new int[N * N][depth + 1];
+            _tieLengths = new int[N * N];
+            _pv = new int[depth + 1][depth + 1];
+            _pvLength = new int[depth + 1];
+        }
+    }
 
-    private ArrayList<Integer> findVaildPos(Board work, Side side) {
-        ArrayList<Integer> validPos = new ArrayList<>();
+    /** Receives the results of each depth of searchPosition. */
+    interface Progress {
+        /** Called when searching to DEPTH is complete, having found a
+         *  move MOVE with value VALUE, after visiting NODES nodes in
+         *  ELAPSED nanoseconds in all. */
+        void depthDone(int depth, int value, int move, long nodes,
+                       long elapsed);
+    }
 
-        for (int i = 0; i < work.size() * work.size(); i++)  {
-            if ( work.get(i).getSide() == WHITE) {
-                validPos.add(i);
-            } else if (work.get(i).getSide() == side && work.get(i).getSpots() <= work.neighbors(i)) {
-                validPos.add(i);
+    /** Analyze POSITION, in which it must be my move, by iterative
+     *  deepening to at most MAXDEPTH plies, stopping early as for
+     *  searchPosition.  Unlike searchPosition, which only needs to know
+     *  which move is best, this ranks every legal move (one of each set
+     *  of moves made equivalent by a symmetry of POSITION), finding the
+     *  exact values of the best COUNT of them (of all if COUNT <= 0) and
+     *  for the others just that they are no better.  Once COUNT moves
+     *  have exact values, each further move is searched with a window
+     *  that only shows whether it beats the COUNT-th best so far.  Moves
+     *  are tried in the order of the previous depth's ranking, and the
+     *  searches share my transposition table.  After each depth is
+     *  completed, reports the ranking to LISTENER. */
+    void analyze(Board position, int maxDepth, int count,
+                 Analysis listener) {
+        Board work = _work;
+        work.copyFrom(position);
+        int sense = getSide() == RED ? 1 : -1;
+        long start = System.nanoTime();
+        assert getSide() == work.whoseMove();
+        _aborted = false;
+        _nodes = _reduced = _probes = _hits = 0;
+        if (work.getWinner() != null) {
+            _limited = false;
+            return;
+        }
+        allocate(work.size(), maxDepth);
+        int numMoves = findVaildPos(work, getSide(), _moves[0]);
+        int symmetric = work.symmetries() & ~1;
+        List<Candidate> ranking = new ArrayList<>();
+        for (int i = 0; i < numMoves; i += 1) {
+            int n = _moves[0][i];
+            if (symmetric == 0 || !isRedundant(n, symmetric, work.size())) {
+                ranking.add(new Candidate(n));
             }
         }
-        return validPos;
+        if (count <= 0 || count > ranking.size()) {
+            count = ranking.size();
+        }
+        int[] exact = new int[count];
+        for (int depth = 1; depth <= maxDepth && !_aborted; depth += 1) {
+            List<Candidate> next = new ArrayList<>();
+            int numExact = 0;
+            for (Candidate previous : ranking) {
+                int alpha = -Integer.MAX_VALUE, beta = Integer.MAX_VALUE;
+                if (numExact == count && sense == 1) {
+                    alpha = exact[count - 1];
+                } else if (numExact == count) {
+                    beta = exact[count - 1];
+                }
+                work.addSpot(getSide(), previous.move);
+                _qNodes = 0;
+                int value = minMax(work, depth - 1, 1, -sense, alpha, beta);
+                work.undo();
+                if (_aborted) {
+                    break;
+                }
+                Candidate result = new Candidate(previous.move);
+                result.value = value;
+                result.exact = value > alpha && value < beta;
+                result.line = new int[_pvLength[1] + 1];
+                result.line[0] = previous.move;
+                System.arraycopy(_pv[1], 0, result.line, 1, _pvLength[1]);
+                next.add(result);
+                if (result.exact) {
+                    numExact = insertValue(exact, numExact, value, sense);
+                }
+            }
+            if (_aborted) {
+                break;
+            }
+            next.sort((a, b) -> a.value != b.value
+                      ? Integer.compare(sense * b.value, sense * a.value)
+                      : Boolean.compare(b.exact, a.exact));
+            ranking = next;
+            listener.depthDone(depth, ranking.subList(0, count), _nodes,
+                               System.nanoTime() - start);
+            if (Math.abs(ranking.get(0).value) == WINNNING_VAl) {
+                break;
+            }
+        }
+        _limited = false;
+    }
+
+    /** Insert VALUE into VALUES[0 .. NUM-1], which is in order from best
+     *  to worst for the player indicated by SENSE, dropping the worst
+     *  value if VALUES is full.  Returns the new number of values. */
+    private static int insertValue(int[] values, int num, int value,
+                                   int sense) {
+        int k = Math.min(num, values.length - 1);
+        if (num == values.length
+            && sense * value <= sense * values[values.length - 1]) {
+            return num;
+        }
+        while (k > 0 && sense * values[k - 1] < sense * value) {
+            values[k] = values[k - 1];
+            k -= 1;
+        }
+        values[k] = value;
+        return Math.min(num + 1, values.length);
+    }
+
+    /** A move considered by analyze, with what is known of its value. */
+    static class Candidate {
+        /** A candidate for MOVE. */
+        Candidate(int move) {
+            this.move = move;
+        }
+
+        /** The move (a square number). */
+        final int move;
+        /** The value of the move (positive favoring Red). */
+        int value;
+        /** True iff value is exact.  Otherwise, the move is no better than
+         *  value for the player making it. */
+        boolean exact;
+        /** The line of play expected after the move, starting with it. */
+        int[] line;
+    }
+
+    /** Receives the results of each depth of analyze. */
+    interface Analysis {
+        /** Called when analysis to DEPTH is complete, having ranked moves
+         *  as in RANKING, best first, after visiting NODES nodes in
+         *  ELAPSED nanoseconds in all. */
+        void depthDone(int depth, List<Candidate> ranking, long nodes,
+                       long elapsed);
+    }
+
+    /** Return true (and remember it) if the current search has been
+     *  stopped, its thread interrupted, or it has run out of nodes or
+     *  time. */
+    private boolean aborted() {
+        if (!_aborted) {
+            if (_stopped || Thread.currentThread().isInterrupted()) {
+                _aborted = true;
+            } else if (_limited) {
+                _aborted = _nodes >= _nodeLimit
+                    || (_deadline != Long.MAX_VALUE
+                        && (_nodes & TIME_CHECK_MASK) == 0
+                        && System.nanoTime() - _deadline > 0);
+            }
+        }
+        return _aborted;
+    }
+
+
+    /** Store the legal moves for SIDE on WORK in increasing order at the
+     *  start of VALIDPOS, returning their number. */
+    private int findVaildPos(Board work, Side side, int[] validPos) {
+        return work.legalMoves(side, validPos);
     }
 
 
     /** Find a move from position BOARD and return its value, recording
-     *  the move found in _foundMove iff SAVEMOVE. The move
+     *  the move found in _foundMove iff PLY (the number of moves made
+     *  since the root of the search) is 0. The move
      *  should have maximal value or have value > BETA if SENSE==1,
      *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
      *  DEPTH levels.  Searching at level 0 simply returns a static estimate
      *  of the board value and does not set _foundMove. If the game is over
      *  on BOARD, does not set _foundMove.
      *
-     *   return the heuristic value of a move and record that move in _foundMove.
+     *  This is a principal variation search: only the first move gets the
+     *  full (ALPHA, BETA) window, and each later one is first searched
+     *  with a null window that can only show whether it beats the best so
+     *  far, and is searched again with the full window only if it does.
+     *  The best line found is left in _pv[PLY].  At the root, a move whose
+     *  scout returns just the best value so far may only be bounded by it,
+     *  so it is searched again with a window around that value, and it
+     *  joins the moves tied for best only if that shows its value exactly.
+     *
+     *  When selective search is on (see setSelective), moves that make
+     *  squares jump are tried first.  Quiet moves (those that do not)
+     *  after the first _lmrMoves are scouted _lmrReduction plies shallower
+     *  at depths of at least _lmrDepth, and are searched fully only if
+     *  that shows them beating the best so far.  Within _futilityDepth
+     *  plies of the horizon, quiet moves are skipped altogether when the
+     *  static value plus _futilityMargin per remaining ply cannot reach
+     *  the window.
+     *
+     *  Below the root, results are looked up in and saved to the
+     *  transposition table under the position's canonical key, so
+     *  rotations and reflections of a position share one entry.  At the
+     *  root, when the position is its own image under some symmetry, only
+     *  one move of each set of equivalent moves is searched.
      *  */
-
-
-    private int minMax(Board board, int depth, boolean saveMove,
+    private int minMax(Board board, int depth, int ply,
                        int sense, int alpha, int beta) {
         Side side = sense == 1? RED : BLUE;
 
-        if (board.getWinner() != null || depth == 0) {
+        _pvLength[ply] = 0;
+        _nodes += 1;
+        if (aborted()) {
+            return 0;
+        }
+        if (board.getWinner() != null) {
             return staticEval(board, WINNNING_VAl);
         }
+        if (depth == 0) {
+            return quiesce(board, sense, alpha, beta, 0);
+        }
+
+        long key = 0;
+        boolean cached = _cache != null && depth >= CACHE_DEPTH;
+        if ((_tableBits > 0 || cached) && ply > 0) {
+            key = board.canonicalKey();
+            long entry = TranspositionTable.MISSING;
+            if (_tableBits > 0) {
+                entry = _table.probe(key);
+                _probes += 1;
+                _hits += entry != TranspositionTable.MISSING ? 1 : 0;
+            }
+            if (entry != TranspositionTable.MISSING
+                && isCutoff(TranspositionTable.depth(entry),
+                            TranspositionTable.bound(entry),
+                            TranspositionTable.value(entry),
+                            depth, alpha, beta)) {
+                return TranspositionTable.value(entry);
+            }
+            entry = cached ? _cache.probe(key) : PositionCache.MISSING;
+            if (entry != PositionCache.MISSING
+                && isCutoff(PositionCache.depth(entry),
+                            PositionCache.bound(entry),
+                            PositionCache.value(entry),
+                            depth, alpha, beta)) {
+                return PositionCache.value(entry);
+            }
+        }
+        int alpha0 = alpha, beta0 = beta;
+        int bestMove = -1;
+        int symmetric = ply == 0 ? board.symmetries() & ~1 : 0;
 
         int bestSoFar = - sense * Integer.MAX_VALUE;
-        ArrayList<Integer> validPos = findVaildPos(board, side);
-//        System.out.println(validPos);
-        for (int n : validPos) {
+        if (ply == 0) {
+            _numTies = 0;
+        }
+        int[] validPos = _moves[ply];
+        int numMoves = findVaildPos(board, side, validPos);
+        boolean first = true;
+        int futilityBound = 0;
+        boolean futile = false;
+        if (_selective && ply > 0 && depth <= _futilityDepth) {
+            int margin = depth * _futilityMargin;
+            futilityBound = staticEval(board, WINNNING_VAl) + sense * margin;
+            futile = sense == 1 ? futilityBound <= alpha
+                : futilityBound >= beta;
+        }
+        if (_selective) {
+            orderMoves(board, side, validPos, numMoves);
+        }
+        for (int i = 0; i < numMoves; i += 1) {
+            int n = validPos[i];
+            if (symmetric != 0 && isRedundant(n, symmetric, board.size())) {
+                continue;
+            }
+            boolean quiet = isQuiet(board, side, n);
+            if (futile && quiet) {
+                if (sense * (futilityBound - bestSoFar) > 0) {
+                    bestSoFar = futilityBound;
+                }
+                continue;
+            }
             /** Add one validPos */
             board.addSpot(side, n);
-            int response = minMax(board, depth - 1, false, - sense, alpha, beta);
+            int response = 0;
+            boolean done = false;
+            if (_selective && !first && quiet && depth >= _lmrDepth
+                && i >= _lmrMoves) {
+                response = scout(board, Math.max(0, depth - 1 - _lmrReduction),
+                                 ply + 1, sense, alpha, beta);
+                done = _aborted || (sense == 1 ? response <= alpha
+                                    : response >= beta);
+            }
+            if (done) {
+                _reduced += 1;
+            } else if (first) {
+                response = minMax(board, depth - 1, ply + 1, - sense,
+                                  alpha, beta);
+            } else {
+                response = scout(board, depth - 1, ply + 1, sense,
+                                 alpha, beta);
+                if (response > alpha && response < beta && !_aborted) {
+                    response = minMax(board, depth - 1, ply + 1, - sense,
+                                      alpha, beta);
+                }
+            }
+            if (ply == 0 && !first && !_aborted && response == bestSoFar) {
+                response = minMax(board, depth - 1, ply + 1, - sense,
+                                  bestSoFar - 1, bestSoFar + 1);
+            }
             /** Backtracking, undo the add */
             board.undo();
+            first = false;
+            if (_aborted) {
+                return bestSoFar;
+            }
 
             if((sense == -1 && response <= bestSoFar) || (sense == 1 && response >= bestSoFar)) {
                 /**Update the bestSoFar */
                 if (response != bestSoFar) {
                     bestSoFar = response;
-                    if (saveMove) {
-                        foundMoves.clear();
+                    bestMove = n;
+                    _pv[ply][0] = n;
+                    System.arraycopy(_pv[ply + 1], 0, _pv[ply], 1,
+                                     _pvLength[ply + 1]);
+                    _pvLength[ply] = _pvLength[ply + 1] + 1;
+                    if (ply == 0) {
+                        _numTies = 0;
                     }
                 }
-                if (saveMove) {
-                    foundMoves.add(n);
+                if (ply == 0) {
+                    _ties[_numTies] = n;
+                    _tieLines[_numTies][0] = n;
+                    System.arraycopy(_pv[1], 0, _tieLines[_numTies], 1,
+                                     _pvLength[1]);
+                    _tieLengths[_numTies] = _pvLength[1] + 1;
+                    _numTies += 1;
                 }
 
 
@@ -128,24 +695,341 @@ class AI extends Player {
                 }
                 /** Pruning if alpha >= beta */
                 if (alpha >= beta) {
-                    return bestSoFar;
+                    break;
                 }
             }
         }
-        if(saveMove) {
-            System.out.println(foundMoves);
-            if (foundMoves.size() > 0){
-                _foundMove = foundMoves.get(_random.nextInt(foundMoves.size()));
+        if (key != 0) {
+            int bound = bestSoFar <= alpha0 ? TranspositionTable.UPPER
+                : bestSoFar >= beta0 ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            if (_tableBits > 0) {
+                _table.store(key, depth, bestSoFar, bound);
+            }
+            if (cached && bestMove != -1) {
+                _cache.store(key, depth, bestSoFar, bound,
+                             Board.transform(board.canonicalSymmetry(),
+                                             bestMove, board.size()));
+            }
+        }
+        if(ply == 0) {
+            if (_numTies > 0){
+                int k = _random.nextInt(_numTies);
+                _foundMove = _ties[k];
+                System.arraycopy(_tieLines[k], 0, _pv[0], 0, _tieLengths[k]);
+                _pvLength[0] = _tieLengths[k];
+            }
+        }
+        return bestSoFar;
+    }
+
+    /** Return the value of BOARD, on which the opponent of the player
+     *  indicated by SENSE has just moved, as found by a null-window search
+     *  to DEPTH at PLY, that can only tell whether the value beats ALPHA
+     *  (if SENSE==1) or BETA (if SENSE==-1). */
+    private int scout(Board board, int depth, int ply, int sense,
+                      int alpha, int beta) {
+        if (sense == 1) {
+            return minMax(board, depth, ply, -sense, alpha, alpha + 1);
+        } else {
+            return minMax(board, depth, ply, -sense, beta - 1, beta);
+        }
+    }
+
+    /** Return true iff a stored result for a search to ENTRYDEPTH whose
+     *  value VALUE is of kind BOUND (as for TranspositionTable) settles a
+     *  search to DEPTH with window (ALPHA, BETA). */
+    private static boolean isCutoff(int entryDepth, int bound, int value,
+                                    int depth, int alpha, int beta) {
+        if (entryDepth < depth) {
+            return false;
+        }
+        switch (bound) {
+        case TranspositionTable.EXACT:
+            return true;
+        case TranspositionTable.LOWER:
+            return value >= beta;
+        case TranspositionTable.UPPER:
+            return value <= alpha;
+        default:
+            return false;
+        }
+    }
+
+    /** Return my cache's entry for the root position WORK if it has an
+     *  exact value for a search to at least DEPTH with a legal best move,
+     *  and otherwise PositionCache.MISSING. */
+    private long rootEntry(Board work, int depth) {
+        if (_cache == null || depth < CACHE_DEPTH) {
+            return PositionCache.MISSING;
+        }
+        long entry = _cache.probe(work.canonicalKey());
+        if (entry == PositionCache.MISSING
+            || PositionCache.depth(entry) < depth
+            || PositionCache.bound(entry) != TranspositionTable.EXACT
+            || PositionCache.move(entry) == -1) {
+            return PositionCache.MISSING;
+        }
+        int move = cachedMove(work, entry);
+        if (!work.isLegal(getSide(), move)) {
+            return PositionCache.MISSING;
+        }
+        return entry;
+    }
+
+    /** Return true iff WORK looks close enough to decided to be worth
+     *  handing to my Solver: one side holds at least SOLVE_SHARE of its
+     *  squares. */
+    private boolean looksDecisive(Board work) {
+        int most = Math.max(work.numOfSide(RED), work.numOfSide(BLUE));
+        return most >= SOLVE_SHARE * work.size() * work.size();
+    }
+
+    /** Try to prove a win for the side to move on WORK, within SOLVE_NODES
+     *  positions, returning the Solver's result.  After a WIN, sets
+     *  _foundMove to the winning move and makes it the principal
+     *  variation.  Counts the positions solved in _nodes. */
+    private int solve(Board work) {
+        if (_solver == null) {
+            _solver = new Solver(SOLVER_BITS);
+        }
+        int result = _solver.solve(work, SOLVE_NODES);
+        _nodes += _solver.nodes();
+        if (result == Solver.WIN) {
+            _foundMove = _solver.move();
+            _pv[0][0] = _foundMove;
+            _pvLength[0] = 1;
+        }
+        return result;
+    }
+
+    /** Return the best move recorded in the cache ENTRY for WORK, in the
+     *  orientation of WORK.  Also makes it the principal variation. */
+    private int cachedMove(Board work, long entry) {
+        int move = Board.transform(Board.inverse(work.canonicalSymmetry()),
+                                   PositionCache.move(entry), work.size());
+        _pv[0][0] = move;
+        _pvLength[0] = 1;
+        return move;
+    }
+
+    /** Record in my cache that a search of the root position WORK to
+     *  DEPTH found MOVE, with exact value VALUE. */
+    private void saveRoot(Board work, int depth, int value, int move) {
+        if (_cache != null && depth >= CACHE_DEPTH && move != -1) {
+            _cache.store(work.canonicalKey(), depth, value,
+                         TranspositionTable.EXACT,
+                         Board.transform(work.canonicalSymmetry(), move,
+                                         work.size()));
+        }
+    }
+
+    /** Return true iff move N on a SIZE x SIZE board is equivalent to a
+     *  lower-numbered move because the position is mapped to itself by
+     *  the symmetries in the mask SYMMETRIC (see Board.symmetries). */
+    private boolean isRedundant(int n, int symmetric, int size) {
+        for (int t = 1; t < Board.SYMMETRIES; t += 1) {
+            if ((symmetric & (1 << t)) != 0
+                && Board.transform(t, n, size) < n) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff adding a spot for SIDE to square #N of BOARD would
+     *  not make anything jump. */
+    private boolean isQuiet(Board board, Side side, int n) {
+        Square sq = board.get(n);
+        return sq.getSide() != side || sq.getSpots() < board.neighbors(n);
+    }
+
+    /** Reorder MOVES[0 .. COUNT-1], which are moves for SIDE on BOARD,
+     *  so that those that are not quiet come first, otherwise keeping
+     *  their order. */
+    private void orderMoves(Board board, Side side, int[] moves, int count) {
+        int k, q;
+        k = q = 0;
+        for (int i = 0; i < count; i += 1) {
+            int n = moves[i];
+            if (isQuiet(board, side, n)) {
+                _scratch[q] = n;
+                q += 1;
+            } else {
+                moves[k] = n;
+                k += 1;
+            }
+        }
+        System.arraycopy(_scratch, 0, moves, k, q);
+    }
+
+    /** Return the value of BOARD, on which RED is to move if SENSE==1 and
+     *  BLUE otherwise, as for minMax at depth 0, but first following
+     *  volatile moves (see volatileMoves) until the position is quiet.
+     *  The side to move may always "stand pat" on the static value, since
+     *  it can usually make some quiet move instead.  QDEPTH is the number
+     *  of volatile moves made so far.  Gives up, returning the static
+     *  value, after QUIESCENCE_DEPTH volatile moves in a line or when the
+     *  search has used up its quiescence node budget. */
+    private int quiesce(Board board, int sense, int alpha, int beta,
+                        int qdepth) {
+        Side side = sense == 1 ? RED : BLUE;
+        int standPat = staticEval(board, WINNNING_VAl);
+        if (board.getWinner() != null || qdepth >= QUIESCENCE_DEPTH
+            || _qNodes >= _qNodeLimit || board.numCritical(side) == 0) {
+            return standPat;
+        }
+        if (sense == 1) {
+            if (standPat >= beta) {
+                return standPat;
+            }
+            alpha = Math.max(alpha, standPat);
+        } else {
+            if (standPat <= alpha) {
+                return standPat;
+            }
+            beta = Math.min(beta, standPat);
+        }
+        int bestSoFar = standPat;
+        int[] moves = _qMoves[qdepth];
+        int numMoves = volatileMoves(board, side, moves);
+        for (int i = 0; i < numMoves; i += 1) {
+            int n = moves[i];
+            _nodes += 1;
+            _qNodes += 1;
+            board.addSpot(side, n);
+            int response = quiesce(board, -sense, alpha, beta, qdepth + 1);
+            board.undo();
+            if (aborted()) {
+                return bestSoFar;
+            }
+            if (sense == 1) {
+                bestSoFar = Math.max(bestSoFar, response);
+                alpha = Math.max(alpha, bestSoFar);
+            } else {
+                bestSoFar = Math.min(bestSoFar, response);
+                beta = Math.min(beta, bestSoFar);
+            }
+            if (alpha >= beta) {
+                break;
             }
         }
         return bestSoFar;
     }
 
+    /** Store the volatile moves for SIDE on WORK at the start of MOVES,
+     *  returning their number.  These are the moves onto squares of SIDE
+     *  that are at critical mass (and so will jump) and that border at
+     *  least one square of the opponent's (which the jump will take). */
+    private int volatileMoves(Board work, Side side, int[] moves) {
+        int count = 0;
+        int N = work.size();
+        Side other = side.opposite();
+        for (int i = 0; i < N * N; i++) {
+            Square sq = work.get(i);
+            if (sq.getSide() == side && sq.getSpots() == work.neighbors(i)) {
+                int r = work.row(i), c = work.col(i);
+                if ((r > 1 && work.get(i - N).getSide() == other)
+                    || (r < N && work.get(i + N).getSide() == other)
+                    || (c > 1 && work.get(i - 1).getSide() == other)
+                    || (c < N && work.get(i + 1).getSide() == other)) {
+                    moves[count] = i;
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Turn the selective search layer (late move reductions and futility
+     *  pruning, as described for minMax) on iff ON.  It is on by default;
+     *  turning it off gives full-width alpha-beta search. */
+    void setSelective(boolean on) {
+        _selective = on;
+    }
+
+    /** Search quiet moves after the first FULLMOVES moves REDUCTION plies
+     *  shallower at depths of MINDEPTH or more. */
+    void setReductions(int minDepth, int fullMoves, int reduction) {
+        _lmrDepth = minDepth;
+        _lmrMoves = fullMoves;
+        _lmrReduction = reduction;
+    }
+
+    /** Skip quiet moves within MAXDEPTH plies of the horizon when the
+     *  static value plus MARGIN per remaining ply falls short of the
+     *  window.  A MAXDEPTH of 0 turns futility pruning off.  A negative
+     *  MARGIN selects the default: the most a quiet move can change my
+     *  evaluation. */
+    void setFutility(int maxDepth, int margin) {
+        _futilityDepth = maxDepth;
+        if (margin >= 0) {
+            _futilityMargin = margin;
+        } else if (_network != null) {
+            _futilityMargin = _network.quietSwing();
+        } else if (_evaluator != null) {
+            _futilityMargin = _evaluator.quietSwing();
+        } else {
+            _futilityMargin = FUTILITY_MARGIN;
+        }
+    }
+
+    /** Use CACHE (if not null) as a persistent second-level table for
+     *  searches of at least CACHE_DEPTH plies, and to start searches of
+     *  positions already searched.  CACHE must hold results of my
+     *  evaluation (see evaluation). */
+    void setCache(PositionCache cache) {
+        if (cache != null && cache.evaluation() != evaluation()) {
+            throw new IllegalArgumentException("cache is for another"
+                                               + " evaluation");
+        }
+        _cache = cache;
+    }
+
+    /** Return an identifier of my static evaluation, as for
+     *  evaluation(EVALUATOR, NETWORK). */
+    long evaluation() {
+        return evaluation(_evaluator, _network);
+    }
+
+    /** Return an identifier of the static evaluation used by AIs with
+     *  EVALUATOR and NETWORK (either of which may be null).  AIs whose
+     *  identifiers are equal value every position alike, and so may share
+     *  search results, as in a PositionCache. */
+    static long evaluation(Evaluator evaluator, TupleNetwork network) {
+        long id = EVALUATION_VERSION;
+        id = id * 1_000_003 + (evaluator == null ? 0 : evaluator.checksum());
+        id = id * 1_000_003 + (network == null ? 0 : network.checksum());
+        return id;
+    }
+
+    /** Use a transposition table of 2**BITS entries, or none if BITS is
+     *  0.  The table persists from one search to the next. */
+    void setTableSize(int bits) {
+        _tableBits = bits;
+        _table = null;
+    }
+
+    /** Return the number of moves my last search settled with a reduced
+     *  search. */
+    long reductions() {
+        return _reduced;
+    }
+
+    /** Set the number of nodes each search may spend in quiescence search
+     *  beyond its nominal depth to LIMIT (0 turns quiescence off). */
+    void setQuiescenceLimit(long limit) {
+        _qNodeLimit = limit;
+    }
+
     /** Return a heuristic estimate of the value of board position B.
      *  Use WINNINGVALUE to indicate a win for Red and -WINNINGVALUE to
-     *  indicate a win for Blue. */
+     *  indicate a win for Blue.  Uses my TupleNetwork if I have one for
+     *  B's size (see TupleNetwork.setDefault), and otherwise my
+     *  Evaluator's weights if I have one (see Evaluator.setDefault).
+     *  Otherwise, counts Red's squares less Blue's.  The value does not
+     *  depend on which side I play. */
     private int staticEval(Board b, int winningValue) {
-        Side side = getSide();
         if (b.getWinner() != null) {
             if (b.getWinner() == BLUE) {
                 return -winningValue;
@@ -154,7 +1038,13 @@ class AI extends Player {
                 return winningValue;
             }
         }
-        return side == RED? b.numOfSide(side) + b.numOfSide(WHITE) : -(b.numOfSide(side) + b.numOfSide(WHITE));
+        if (_network != null && _network.size() == b.size()) {
+            return _network.eval(b, winningValue);
+        }
+        if (_evaluator != null) {
+            return _evaluator.eval(b, winningValue);
+        }
+        return b.numOfSide(RED) - b.numOfSide(BLUE);
     }
 
     /** A random-number generator used for move selection.
@@ -163,10 +1053,141 @@ class AI extends Player {
 
     private Random _random;
 
+    /** Weighted feature evaluation used in place of the built-in square
+     *  count, if not null. */
+    private Evaluator _evaluator;
+
+    /** N-tuple network evaluation used in place of the others on boards
+     *  of its size, if not null. */
+    private TupleNetwork _network;
+
     /** Used to convey moves discovered by minMax. */
     private int _foundMove;
 
-    private ArrayList<Integer> foundMoves;
+    /** The equally good root moves found so far. */
+    private int[] _ties = new int[0];
+    /** Number of valid entries in _ties. */
+    private int _numTies;
+    /** Lines of play for the moves in _ties. */
+    private int[][] _tieLines;
+    /** Lengths of the lines in _tieLines. */
+    private int[] _tieLengths;
+
+    /** Per-ply move lists: _moves[p] holds the moves at ply p. */
+    private int[][] _moves = new int[0][];
+    /** Per-level move lists for quiescence search. */
+    private int[][] _qMoves;
+    /** Scratch space for ordering moves. */
+    private int[] _scratch = new int[0];
+
+    /** The board on which I search, copied from the position given. */
+    private final Board _work = new Board(Defaults.BOARD_SIZE);
 
     private final int WINNNING_VAl = 1000000;
+
+    /** Depth of the search made by getMove. */
+    private static final int SEARCH_DEPTH = 4;
+
+    /** Initial half-width of the aspiration window used by each depth of
+     *  searchPosition after the first. */
+    static final int ASPIRATION_WINDOW = 8;
+
+    /** _pv[p][0 .. _pvLength[p]-1] is the best line found from the
+     *  current node at ply p of the search. */
+    private int[][] _pv = new int[0][];
+    /** Lengths of the lines in _pv. */
+    private int[] _pvLength = new int[0];
+
+    /** Principal variation of the last completed search. */
+    private int[] _lastPV = new int[0];
+    /** Depth and value of the last completed search. */
+    private int _lastDepth, _lastValue;
+    /** Time in nanoseconds taken by the last completed search. */
+    private long _lastElapsed;
+
+    /** Default number of nodes a search may spend in quiescence. */
+    static final long QUIESCENCE_NODES = 20000;
+
+    /** Maximum number of volatile moves in one line of quiescence. */
+    private static final int QUIESCENCE_DEPTH = 8;
+
+    /** Default minimum remaining depth for late move reductions. */
+    static final int LMR_DEPTH = 3;
+    /** Default number of moves searched fully before reducing. */
+    static final int LMR_MOVES = 3;
+    /** Default number of plies by which late moves are reduced. */
+    static final int LMR_REDUCTION = 1;
+    /** Default number of plies from the horizon at which futility pruning
+     *  applies. */
+    static final int FUTILITY_DEPTH = 2;
+    /** Version of the built-in evaluation, part of the identifier
+     *  returned by evaluation.  Change it whenever staticEval changes. */
+    static final long EVALUATION_VERSION = 2;
+
+    /** Default futility margin per ply for the built-in evaluation, which
+     *  a quiet move changes by at most 1. */
+    static final int FUTILITY_MARGIN = 2;
+
+    /** Default number of bits in the size of the transposition table. */
+    static final int TABLE_BITS = 15;
+
+    /** Least fraction of the squares held by one side for which
+     *  searchForMove first tries to prove a win with my Solver. */
+    static final double SOLVE_SHARE = 0.75;
+
+    /** Number of positions my Solver may visit per move. */
+    static final long SOLVE_NODES = 5_000;
+
+    /** Log2 of the number of entries in my Solver's table. */
+    static final int SOLVER_BITS = 16;
+
+    /** Minimum depth of searches recorded in or taken from _cache. */
+    static final int CACHE_DEPTH = 3;
+
+    /** Persistent cache of deep results, or null. */
+    private PositionCache _cache;
+
+    /** Proves wins in decisive positions; created on first use. */
+    private Solver _solver;
+
+    /** Transposition table, created at the first search. */
+    private TranspositionTable _table;
+    /** Log2 of the size of _table, or 0 for none. */
+    private int _tableBits = TABLE_BITS;
+
+    /** True iff the selective search layer is on. */
+    private boolean _selective = true;
+    /** Late move reduction parameters (see setReductions). */
+    private int _lmrDepth = LMR_DEPTH, _lmrMoves = LMR_MOVES,
+        _lmrReduction = LMR_REDUCTION;
+    /** Futility pruning parameters (see setFutility). */
+    private int _futilityDepth = FUTILITY_DEPTH,
+        _futilityMargin = FUTILITY_MARGIN;
+    /** Number of moves settled by reduced searches in the current or
+     *  last search. */
+    private long _reduced;
+
+    /** Nodes the current search may spend in quiescence. */
+    private long _qNodeLimit = QUIESCENCE_NODES;
+    /** Nodes spent in quiescence so far by the current search. */
+    private long _qNodes;
+
+    /** The clock is consulted once every TIME_CHECK_MASK + 1 nodes. */
+    private static final long TIME_CHECK_MASK = 1023;
+
+    /** Nodes visited by the current or last search. */
+    private long _nodes;
+    /** Transposition table probes by the current or last search, and
+     *  how many of them found their positions. */
+    private long _probes, _hits;
+    /** Limit on _nodes for a limited search. */
+    private volatile long _nodeLimit;
+    /** System.nanoTime() value by which a limited search must stop. */
+    private volatile long _deadline;
+    /** True iff the current search has a node or time limit. */
+    private volatile boolean _limited;
+    /** Set by stop(). */
+    private volatile boolean _stopped;
+    /** True iff the current search has been cut short. */
+    private boolean _aborted;
 }
@@ -0,0 +1,193 @@
+package jump61;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static jump61.Side.*;
+
+/** Unit tests of the AI's search.
+ *  @author Tianyi Xu
+ */
+public class AITest {
+
+    /** Return the number of bytes allocated so far by the current thread,
+     *  or -1 if the JVM cannot tell. */
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testSearchDoesNotAllocate() {
+        Board board = new Board(6);
+        board.addSpot(RED, 1, 1);
+        board.addSpot(BLUE, 3, 3);
+        board.addSpot(RED, 2, 1);
+        board.addSpot(BLUE, 6, 6);
+        AI ai = new AI(RED, 42);
+        for (int i = 0; i < 5; i += 1) {
+            ai.searchPosition(board, 5, null);
+        }
+        long before = allocated();
+        ai.searchPosition(board, 5, null);
+        long bytes = allocated() - before;
+        if (before >= 0) {
+            assertTrue(String.format("%d bytes for %d nodes", bytes,
+                                     ai.nodes()),
+                       bytes < ai.nodes() / 100 + 4096);
+        }
+    }
+
+    @Test
+    public void testCacheCarriesOverRuns() throws IOException {
+        File file = File.createTempFile("jump61", ".cache");
+        assertTrue(file.delete());
+        file.deleteOnExit();
+        Board board = new Board(5);
+        board.addSpot(RED, 1, 1);
+        board.addSpot(BLUE, 3, 3);
+        AI ai = new AI(RED, 42);
+        PositionCache cache = PositionCache.open(file.getPath(),
+                                                 ai.evaluation());
+        PositionCache reader = PositionCache.open(file.getPath(),
+                                                  ai.evaluation());
+        assertTrue(cache.isWritable());
+        assertFalse(reader.isWritable());
+        ai.setCache(cache);
+        int move = ai.searchPosition(board, 4, null);
+        assertTrue(ai.nodes() > 0);
+        cache.close();
+        reader.close();
+
+        Board mirror = new Board(5);
+        mirror.addSpot(RED, 1, 5);
+        mirror.addSpot(BLUE, 3, 3);
+        ai = new AI(RED, 43);
+        try {
+            PositionCache.open(file.getPath(), ai.evaluation() + 1);
+            fail("cache opened for another evaluation");
+        } catch (GameException excp) {
+            /* Expected. */
+        }
+        cache = PositionCache.open(file.getPath(), ai.evaluation());
+        ai.setCache(cache);
+        int reflected = ai.searchPosition(mirror, 4, null);
+        cache.close();
+        assertEquals(0, ai.nodes());
+        int image = mirror.sqNum(board.row(move), 6 - board.col(move));
+        boolean equivalent = false;
+        for (int t = 0; t < Board.SYMMETRIES; t += 1) {
+            equivalent |= (mirror.symmetries() & (1 << t)) != 0
+                && Board.transform(t, reflected, 5) == image;
+        }
+        assertTrue("cached move not reflected", equivalent);
+    }
+
+
+    @Test
+    public void testSolver() {
+        Random gen = new Random(49);
+        Solver solver = new Solver(16);
+        int[] settled = new int[2];
+        for (int trial = 0; trial < 40; trial += 1) {
+            int N = 2 + trial % 2;
+            Board board = new Board(N);
+            int[] moves = new int[N * N];
+            for (int k = N * N + gen.nextInt(3 * N * N); k > 0
+                     && board.getWinner() == null; k -= 1) {
+                int count = board.legalMoves(board.whoseMove(), moves);
+                board.addSpot(board.whoseMove(), moves[gen.nextInt(count)]);
+            }
+            if (board.getWinner() != null) {
+                continue;
+            }
+            int result = solver.solve(board, 200_000);
+            if (result == Solver.UNKNOWN) {
+                continue;
+            }
+            settled[N - 2] += 1;
+            assertEquals("solved value", wins(board) ? Solver.WIN
+                         : Solver.LOSS, result);
+            if (result == Solver.WIN) {
+                board.addSpot(board.whoseMove(), solver.move());
+                assertTrue("winning move", board.getWinner() != null
+                           || !wins(board));
+            }
+        }
+        assertTrue("2x2 positions solved", settled[0] > 0);
+        assertTrue("3x3 positions solved", settled[1] > 0);
+    }
+
+    @Test
+    public void testRootTiesAreExact() {
+        Random gen = new Random(32);
+        for (int trial = 0; trial < 30; trial += 1) {
+            Board board = new Board(4);
+            int[] moves = new int[16];
+            for (int k = 4 + gen.nextInt(10); k > 0; k -= 1) {
+                int count = board.legalMoves(board.whoseMove(), moves);
+                board.addSpot(board.whoseMove(), moves[gen.nextInt(count)]);
+            }
+            if (board.getWinner() != null) {
+                continue;
+            }
+            Side player = board.whoseMove();
+            AI ai = new AI(player, trial);
+            ai.setSelective(false);
+            ai.setTableSize(0);
+            ai.setQuiescenceLimit(0);
+            int move = ai.searchPosition(board, 3, null);
+            board.addSpot(player, move);
+            assertEquals("value of chosen move", ai.lastValue(),
+                         minimax(ai, board, 2));
+        }
+    }
+
+    /** Return the value of BOARD found by plain minimax to DEPTH, using
+     *  AI's static evaluation. */
+    private static int minimax(AI ai, Board board, int depth) {
+        if (depth == 0 || board.getWinner() != null) {
+            return ai.evaluate(board);
+        }
+        Side player = board.whoseMove();
+        int N = board.size();
+        int[] moves = new int[N * N];
+        int count = board.legalMoves(player, moves);
+        int best = player == RED ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < count; i += 1) {
+            board.addSpot(player, moves[i]);
+            int value = minimax(ai, board, depth - 1);
+            board.undo();
+            best = player == RED ? Math.max(best, value)
+                : Math.min(best, value);
+        }
+        return best;
+    }
+
+    /** Return true iff the side to move on BOARD can force a win, by
+     *  exhaustive search. */
+    private static boolean wins(Board board) {
+        Side player = board.whoseMove();
+        int[] moves = new int[board.size() * board.size()];
+        int count = board.legalMoves(player, moves);
+        for (int i = 0; i < count; i += 1) {
+            board.addSpot(player, moves[i]);
+            boolean won = board.getWinner() != null || !wins(board);
+            board.undo();
+            if (won) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
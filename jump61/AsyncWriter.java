@@ -0,0 +1,131 @@
+package jump61;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/** A Writer that collects text and, at each flush, hands it to a
+ *  background thread that writes it to another Writer, so that slow
+ *  output (a transcript file, say) does not hold up the thread producing
+ *  it.  At most QUEUE_LIMIT flushed chunks may be waiting; beyond that,
+ *  flush waits for the writer thread to catch up.  An error in writing is
+ *  reported by the next flush or close.
+ *  @author Tianyi Xu
+ */
+class AsyncWriter extends Writer {
+
+    /** Maximum number of flushed chunks waiting to be written. */
+    static final int QUEUE_LIMIT = 64;
+
+    /** A writer that sends its output to OUT from a new daemon thread. */
+    AsyncWriter(Writer out) {
+        _out = out;
+        _writer = new Thread(this::drain, "async writer");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        checkError();
+        _chunk.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        checkError();
+        _chunk.append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        checkError();
+        _chunk.append(csq);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkError();
+        if (_chunk.length() > 0) {
+            put(_chunk.toString());
+            _chunk.setLength(0);
+        }
+    }
+
+    /** Flush me, wait for everything to be written, and close the
+     *  underlying Writer. */
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        flush();
+        _closed = true;
+        put(END);
+        try {
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        checkError();
+    }
+
+    /** Queue CHUNK for the writer thread. */
+    private void put(String chunk) throws IOException {
+        try {
+            _queue.put(chunk);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+
+    /** Throw the first error met by the writer thread, if any. */
+    private void checkError() throws IOException {
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /** Body of the writer thread: write queued chunks, flushing _out
+     *  whenever the queue empties, until END. */
+    private void drain() {
+        try (Writer out = _out) {
+            while (true) {
+                String chunk = _queue.take();
+                if (chunk == END) {
+                    break;
+                }
+                if (_error == null) {
+                    out.write(chunk);
+                    if (_queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            _error = excp;
+        } catch (InterruptedException excp) {
+            _error = new IOException("writer interrupted");
+        }
+    }
+
+    /** Marks the end of the queued chunks (compared by identity). */
+    private static final String END = new String("");
+
+    /** Destination of the text. */
+    private final Writer _out;
+    /** The writer thread. */
+    private final Thread _writer;
+    /** Flushed chunks waiting to be written. */
+    private final BlockingQueue<String> _queue =
+        new LinkedBlockingQueue<>(QUEUE_LIMIT);
+    /** Text written since the last flush. */
+    private final StringBuilder _chunk = new StringBuilder();
+    /** True once I have been closed. */
+    private boolean _closed;
+    /** The first error in writing _out, if any. */
+    private volatile IOException _error;
+}
@@ -0,0 +1,228 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Scores many positions at once, in parallel, each by static evaluation
+ *  or by a search to a fixed depth.  Positions are given in the words
+ *  form of PositionCodec, and results come back in the same order.  Each
+ *  leaf task borrows a Worker (a Board plus an AI for each side) from a
+ *  shared pool of them and returns it when done, so that after the first
+ *  few tasks no boards or search tables are created.  Usage:
+ *      java jump61.BatchEvaluator DEPTH [THREADS]
+ *  reads positions in PositionCodec's text form, one per line, from the
+ *  standard input, and writes for each a line "VALUE R C" giving its
+ *  value (positive favoring Red) and the best move found for the side to
+ *  move, or "VALUE -" if DEPTH is 0 or the game is over.  Input is
+ *  processed in blocks of BLOCK_SIZE positions; throughput is reported
+ *  on the standard error.  Each search starts afresh (see AI.reset), so
+ *  that results do not depend on how positions are divided among
+ *  threads.
+ *  @author Tianyi Xu
+ */
+public class BatchEvaluator {
+
+    /** Number of positions read and evaluated at a time by main. */
+    static final int BLOCK_SIZE = 4096;
+
+    /** Number of positions below which work is not split further. */
+    private static final int LEAF_SIZE = 16;
+
+    /** Evaluate positions as described in the class comment, according
+     *  to ARGS. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java jump61.BatchEvaluator DEPTH"
+                               + " [THREADS]");
+            System.exit(1);
+        }
+        int depth = Integer.parseInt(args[0]);
+        ForkJoinPool pool = args.length > 1
+            ? new ForkJoinPool(Integer.parseInt(args[1]))
+            : ForkJoinPool.commonPool();
+        BatchEvaluator evaluator = new BatchEvaluator(pool, depth);
+        BufferedReader inp =
+            new BufferedReader(new InputStreamReader(System.in));
+        PrintStream out = System.out;
+        Board board = new Board(Defaults.BOARD_SIZE);
+        List<long[]> block = new ArrayList<>();
+        int[] values = new int[BLOCK_SIZE], moves = new int[BLOCK_SIZE];
+        long total = 0, nodes = 0, start = System.nanoTime();
+        StringBuilder text = new StringBuilder();
+        for (String line = inp.readLine(); ; line = inp.readLine()) {
+            if (line != null && !line.trim().isEmpty()) {
+                PositionCodec.fromText(line.trim(), board);
+                block.add(PositionCodec.encode(board));
+            }
+            if (block.size() == BLOCK_SIZE
+                || (line == null && !block.isEmpty())) {
+                long[][] positions = block.toArray(new long[0][]);
+                evaluator.evaluate(positions, values, moves);
+                text.setLength(0);
+                for (int i = 0; i < positions.length; i += 1) {
+                    text.append(values[i]);
+                    if (moves[i] == -1) {
+                        text.append(" -\n");
+                    } else {
+                        int N = PositionCodec.size(positions[i], 0);
+                        text.append(' ').append(moves[i] / N + 1)
+                            .append(' ').append(moves[i] % N + 1)
+                            .append('\n');
+                    }
+                }
+                out.append(text);
+                total += positions.length;
+                nodes += evaluator.nodes();
+                block.clear();
+            }
+            if (line == null) {
+                break;
+            }
+        }
+        out.flush();
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        System.err.printf("%d positions in %.2f s: %.0f positions/s,"
+                          + " %d nodes (%.0f nodes/s) on %d threads%n",
+                          total, seconds, total / seconds, nodes,
+                          nodes / seconds, pool.getParallelism());
+    }
+
+    /** An evaluator that uses POOL to score positions by a search to
+     *  DEPTH plies, or by static evaluation if DEPTH is 0. */
+    BatchEvaluator(ForkJoinPool pool, int depth) {
+        _pool = pool;
+        _depth = depth;
+    }
+
+    /** Set VALUES[i] to the value (positive favoring Red) of the
+     *  position whose words form (see PositionCodec) is POSITIONS[i],
+     *  and, if MOVES is not null, MOVES[i] to the best move found for
+     *  the side to move (a square number), or -1 if my depth is 0 or the
+     *  game is over, for each i. */
+    void evaluate(long[][] positions, int[] values, int[] moves) {
+        _nodes.set(0);
+        long start = System.nanoTime();
+        _pool.invoke(new Evaluate(positions, values, moves, 0,
+                                  positions.length));
+        _elapsed = System.nanoTime() - start;
+        _count = positions.length;
+    }
+
+    /** Return the number of search nodes visited by the last call to
+     *  evaluate. */
+    long nodes() {
+        return _nodes.get();
+    }
+
+    /** Return the throughput of the last call to evaluate in positions
+     *  per second. */
+    double positionsPerSecond() {
+        return _elapsed == 0 ? 0.0 : _count * 1e9 / _elapsed;
+    }
+
+    /** Evaluates a range of positions on one borrowed Worker per leaf. */
+    private class Evaluate extends RecursiveAction {
+
+        /** Task for positions LO .. HI-1 of POSITIONS, with results going
+         *  to VALUES and MOVES (as for evaluate). */
+        Evaluate(long[][] positions, int[] values, int[] moves,
+                 int lo, int hi) {
+            _positions = positions;
+            _values = values;
+            _moves = moves;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > LEAF_SIZE) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Evaluate(_positions, _values, _moves,
+                                       _lo, mid),
+                          new Evaluate(_positions, _values, _moves,
+                                       mid, _hi));
+                return;
+            }
+            Worker worker = _workers.poll();
+            if (worker == null) {
+                worker = new Worker();
+            }
+            try {
+                long nodes = 0;
+                for (int i = _lo; i < _hi; i += 1) {
+                    nodes += worker.evaluate(_positions[i], _values,
+                                             _moves, i);
+                }
+                _nodes.addAndGet(nodes);
+            } finally {
+                _workers.add(worker);
+            }
+        }
+
+        /** Results of the evaluation. */
+        private final int[] _values, _moves;
+        /** Positions to evaluate. */
+        private final long[][] _positions;
+        /** Bounds of my range of positions. */
+        private final int _lo, _hi;
+    }
+
+    /** A board and search state reused for many positions. */
+    private class Worker {
+
+        /** Score POSITION (in words form), storing its value in VALUES[I]
+         *  and its best move, if MOVES is not null, in MOVES[I] (as for
+         *  BatchEvaluator.evaluate), and return the number of nodes
+         *  searched. */
+        long evaluate(long[] position, int[] values, int[] moves, int i) {
+            PositionCodec.decode(position, 0, _board);
+            Side player = _board.whoseMove();
+            AI ai = _ais[player.ordinal()];
+            if (ai == null) {
+                ai = _ais[player.ordinal()] = new AI(player, 0);
+            }
+            int move = -1;
+            long nodes = 0;
+            if (_depth == 0 || _board.getWinner() != null) {
+                values[i] = ai.evaluate(_board);
+            } else {
+                ai.reset(_board.key());
+                move = ai.searchPosition(_board, _depth, null);
+                values[i] = ai.lastValue();
+                nodes = ai.nodes();
+            }
+            if (moves != null) {
+                moves[i] = move;
+            }
+            return nodes;
+        }
+
+        /** Board into which positions are decoded. */
+        private final Board _board = new Board(Defaults.BOARD_SIZE);
+        /** AIs for each side, indexed by ordinal. */
+        private final AI[] _ais = new AI[Side.values().length];
+    }
+
+    /** Workers not currently in use. */
+    private final ConcurrentLinkedQueue<Worker> _workers =
+        new ConcurrentLinkedQueue<>();
+    /** Pool on which positions are evaluated. */
+    private final ForkJoinPool _pool;
+    /** Search depth, or 0 for static evaluation. */
+    private final int _depth;
+    /** Nodes searched in the last evaluate. */
+    private final AtomicLong _nodes = new AtomicLong();
+    /** Time taken by the last evaluate in nanoseconds. */
+    private volatile long _elapsed;
+    /** Number of positions in the last evaluate. */
+    private volatile int _count;
+}
@@ -6,11 +6,11 @@
 // solutions.
 package jump61;
 
-import com.sun.tools.internal.xjc.model.CArrayInfo;
 import static java.lang.System.arraycopy;
 
 import java.util.*;
 
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 import static jump61.Side.*;
@@ -37,17 +37,11 @@ class Board {
     /** An N x N board in initial configuration. */
     Board(int N) {
         this();
-        _size = N;
         _readonlyBoard = new ConstantBoard(this);
+        fill(N);
 
-        _squares = new Square[N][N];
-        for (Square[] ss : _squares) {
-            for (int i = 0; i < N; i++) {
-                ss[i] = INITIAL;
-            }
-        }
-
-        _history = new ArrayDeque<>();
+        _history = new ArrayList<>();
+        _current = -1;
         markUndo();
         _numMoves = 0;
     }
@@ -56,7 +50,7 @@ class Board {
      *  undo history is clear, and whose notifier does nothing. */
     Board(Board board0) {
         this(board0.size());
-        copy(board0);
+        copyFrom(board0);
     }
 
     /** Returns a read only version of this board. */
@@ -67,46 +61,108 @@ class Board {
     /** (Re)initialize me to a cleared board with N squares on a side. Clears
      *  the undo history and sets the number of moves to 0. */
     void clear(int N) {
-        _size = N;
-        _squares = new Square[N][N];
-        for (Square[] ss : _squares) {
-            for (int i = 0; i < N; i++) {
-                ss[i] = INITIAL;
-            }
-        }
-        _history.clear();
+        fill(N);
+        _current = -1;
         markUndo();
         _numMoves = 0;
+        fireReset();
         announce();
     }
 
     /** Copy the contents of BOARD into me.
      * clear the undo history and set number of moves back to zero */
     void copy(Board board) {
-        _size = board.size();
-        _squares = new Square[_size][_size];
-        for (int i = 0; i < _size * _size; i++) {
-            int r = row(i);
-            int c = col(i);
-            Side side = board.get(i).getSide();
-            int numSpot = board.get(i).getSpots();
-            internalSet(r, c, numSpot, side);
-        }
-        _history.clear();
+        copyFrom(board);
+        announce();
+    }
+
+    /** Copy the contents of BOARD into me as for copy, but without
+     *  telling my notifier (my listeners are still reset).  Copies
+     *  BOARD's arrays (those of the board it shows, if it is a read-only
+     *  view) wholesale and reallocates mine only if our sizes differ, so
+     *  that a board reused for many searches costs a few block copies per
+     *  search. */
+    void copyFrom(Board board) {
+        Board from = board.contents();
+        if (from != this) {
+            if (_spots == null || _size != from._size) {
+                fill(from._size);
+            }
+            arraycopy(from._spots, 0, _spots, 0, _spots.length);
+            arraycopy(from._sides, 0, _sides, 0, _sides.length);
+            if (_keys != null) {
+                arraycopy(from._keys, 0, _keys, 0, SYMMETRIES);
+            }
+            for (int s = 0; s < SIDES.length; s += 1) {
+                arraycopy(from._owned[s], 0, _owned[s], 0,
+                          _overFull.length);
+            }
+            arraycopy(from._overFull, 0, _overFull, 0, _overFull.length);
+            arraycopy(from._numOwned, 0, _numOwned, 0, SIDES.length);
+            _numSpots = from._numSpots;
+            if (_tupleIndex != null) {
+                _networkSum = _network.reset(this, _tupleIndex);
+            }
+        }
+        _current = -1;
+        markUndo();
+        _numMoves = 0;
+        fireReset();
+    }
+
+    /** Return the Board whose arrays hold my contents: me, or for a
+     *  read-only view, the board it shows. */
+    Board contents() {
+        return this;
+    }
+
+    /** Make me an N x N board whose square #k has spots CELLS[k] % 16
+     *  and side Side.values()[CELLS[k] / 16], each of which must be a
+     *  valid square.  Clears the undo history and sets the number of moves
+     *  to 0, as for copy. */
+    void setCells(int N, byte[] cells) {
+        fill(N);
+        for (int n = 0; n < N * N; n += 1) {
+            _spots[n] = (byte) (cells[n] & 15);
+            _sides[n] = (byte) (cells[n] >> 4);
+        }
+        if (_keys != null) {
+            computeKeys(_keys);
+        }
+        recount();
+        _current = -1;
         markUndo();
         _numMoves = 0;
+        fireReset();
         announce();
     }
 
-    /** Copy the contents of BOARD into me, without modifying my undo
-     *  history. Assumes BOARD and I have the same size. */
-    private void internalCopy(Board board) {
-        assert size() == board.size();
-        for (int i = 0; i < _size; i++) {
-            arraycopy(board._squares[i], 0, this._squares[i],0, _size);
+    /** Make me an N x N board with every square in its initial state,
+     *  reallocating my contents only if my size changes.  Does not touch
+     *  the undo history. */
+    private void fill(int N) {
+        if (_spots == null || N != _size) {
+            _size = N;
+            _spots = new byte[N * N];
+            _sides = new byte[N * N];
+            _capacity = new byte[N * N];
+            for (int n = 0; n < N * N; n += 1) {
+                _capacity[n] = (byte) neighbors(n);
+            }
+            _frontier = _candidates = _stamps = null;
+            _parallelCascade = null;
+            _keys = N <= MAX_KEYED_SIZE ? new long[SYMMETRIES] : null;
+            _owned = new long[SIDES.length][(N * N + 63) >>> 6];
+            _overFull = new long[_owned[0].length];
+            _tupleIndex = _network != null && _network.size() == N
+                ? new int[_network.placements()] : null;
+        }
+        Arrays.fill(_spots, (byte) INITIAL.getSpots());
+        Arrays.fill(_sides, (byte) INITIAL.getSide().ordinal());
+        if (_keys != null) {
+            computeKeys(_keys);
         }
-        _history.add(new GameState());
-        _history.getLast().saveState();
+        recount();
     }
 
     /** Return the number of rows and of columns of THIS. */
@@ -128,20 +184,14 @@ class Board {
      *  size() - 2*size() - 1, etc. */
     Square get(int n) {
         if (exists(n)) {
-            return _squares[n / size()][n % size()];
+            return square(SIDES[_sides[n]], _spots[n]);
         }
         return null; // FIXME
     }
 
     /** Returns the total number of spots on the board. */
     int numPieces() {
-        int totalSpots = 0;
-        for (Square[] ss : _squares) {
-            for (Square s : ss) {
-                totalSpots += s.getSpots();
-            }
-        }
-        return totalSpots; // FIXME
+        return _numSpots;
     }
 
     /** Returns the Side of the player who would be next to move.  If the
@@ -195,17 +245,37 @@ class Board {
     /** Returns true iff it would currently be legal for PLAYER to add a spot
      *  to square #N. */
     boolean isLegal(Side player, int n) {
-        if (!exists(n)) {
-            return false;
-        }
-        if (get(n).getSpots() > neighbors(row(n), col(n))) {
+        if (!exists(n) || getWinner() != null || !isLegal(player)) {
             return false;
         }
-        // If game is over
-        if (getWinner() != null) {
-            return false;
+        return _sides[n] != player.opposite().ordinal()
+            && _spots[n] <= _capacity[n];
+    }
+
+    /** Store the squares to which PLAYER (RED or BLUE) may add a spot
+     *  when it is PLAYER's move and the game is not over--those neither
+     *  belonging to the opponent nor over-full--in increasing order at
+     *  the start of MOVES, and return their number.  Takes time
+     *  proportional to the number of moves, plus one step for every 64
+     *  squares. */
+    int legalMoves(Side player, int[] moves) {
+        assert player != WHITE;
+        long[] theirs = _owned[player.opposite().ordinal()];
+        int last = theirs.length - 1, extra = (_size * _size) & 63;
+        int count;
+        count = 0;
+        for (int w = 0; w <= last; w += 1) {
+            long bits = ~(theirs[w] | _overFull[w]);
+            if (w == last && extra != 0) {
+                bits &= (1L << extra) - 1;
+            }
+            while (bits != 0) {
+                moves[count] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                count += 1;
+                bits &= bits - 1;
+            }
         }
-        return isLegal(player) && get(n).getSide() != player.opposite(); // FIXME
+        return count;
     }
 
     /** Returns true iff PLAYER is allowed to move at this point. */
@@ -227,30 +297,59 @@ class Board {
 
     /** Return the number of squares of given SIDE. */
     int numOfSide(Side side) {
-        int num = 0;
-        for (Square[] ss : _squares) {
-            for (Square s : ss) {
-                if (s.getSide() == side) {
-                    num++;
-                }
+        return _numOwned[side.ordinal()];
+    }
+
+    /** Return the number of squares of SIDE that are critical, i.e., that
+     *  would jump if SIDE added a spot to them. */
+    int numCritical(Side side) {
+        return Kernels.INSTANCE.countCritical(_spots, _capacity, _sides,
+                                              (byte) side.ordinal());
+    }
+
+    /** Return true iff no square is over-full, according to _overFull,
+     *  which changed keeps up to date, so that this costs one test per 64
+     *  squares. */
+    private boolean noneOverFull() {
+        for (long word : _overFull) {
+            if (word != 0) {
+                return false;
             }
         }
-        return num; // FIXME
+        return true;
     }
 
     /** Add a spot from PLAYER at row R, column C.  Assumes
      *  isLegal(PLAYER, R, C). */
     void addSpot(Side player, int r, int c) {
         // FIXME
-        set(r, c, get(r, c).getSpots() + 1, player);
+        if (_events != null) {
+            _events.begin(sqNum(r, c), player);
+        }
+        internalSet(r, c, get(r, c).getSpots() + 1, player);
+        _cascadeRounds = _cascadeTopples = 0;
         if (isOverFlow(sqNum(r,c))){
             jump(sqNum(r, c));
         }
+        assert getWinner() != null || noneOverFull();
         markUndo();
         _numMoves += 1;
+        fireChanges(sqNum(r, c), player);
         announce();
     }
 
+    /** Return the number of squares toppled by the last addSpot, or -1
+     *  if they were toppled in parallel. */
+    int lastCascade() {
+        return _cascadeTopples;
+    }
+
+    /** Return the number of rounds of toppling in the last addSpot (see
+     *  jump), or -1 if they were toppled in parallel. */
+    int lastCascadeRounds() {
+        return _cascadeRounds;
+    }
+
     /** Add a spot from PLAYER at square #N.  Assumes isLegal(PLAYER, N). */
     void addSpot(Side player, int n) {
         // FIXME
@@ -266,6 +365,7 @@ class Board {
         } else if (num == 0){
             internalSet(r, c, num, WHITE);
         }
+        fireChanges(-1, null);
         announce();
     }
 
@@ -283,12 +383,11 @@ class Board {
      *  if NUM > 0 (otherwise, white). Does not announce changes. */
     private void internalSet(int n, int num, Side player) {
         if (exists(n)) {
-            if (num == 0) {
-                _squares[n / size()][n % size()] = square(WHITE, num);
-            } else {
-                _squares[n / size()][n % size()] = square(player, num);
-            }
-
+            Square sq = square(num == 0 ? WHITE : player, num);
+            int old = code(n);
+            _spots[n] = (byte) sq.getSpots();
+            _sides[n] = (byte) sq.getSide().ordinal();
+            changed(n, old);
         }
     }
 
@@ -311,46 +410,23 @@ class Board {
      *  can only undo back to the last point at which the undo history
      *  was cleared, or the construction of this Board. */
     void undo() {
-        if (_history.isEmpty()) {
+        if (_current <= 0) {
             return;
         }
-        _history.removeLast(); // pop?
-        _history.getLast().restoreState(); // why can't use peek?
+        _current -= 1;
+        _history.get(_current).restoreState();
+        fireReset();
     }
 
-    /** Record the beginning of a move in the undo history. */
+    /** Record the beginning of a move in the undo history, reusing a
+     *  GameState left over from undone moves if there is one, so that a
+     *  search that makes and undoes moves does not allocate. */
     private void markUndo() {
-        _history.add(new GameState());
-        _history.getLast().saveState();
-    }
-
-    /** Add DELTASPOTS spots of side PLAYER to row R, column C,
-     *  updating counts of numbers of squares of each color. */
-    private void simpleAdd(Side player, int r, int c, int deltaSpots) {
-        internalSet(r, c, deltaSpots + get(r, c).getSpots(), player);
-    }
-
-    /** Add DELTASPOTS spots of color PLAYER to square #N,
-     *  updating counts of numbers of squares of each color. */
-    private void simpleAdd(Side player, int n, int deltaSpots) {
-        internalSet(n, deltaSpots + get(n).getSpots(), player);
-    }
-
-    /** Used in jump to keep track of squares needing processing.  Allocated
-     *  here to cut down on allocations. */
-    private final ArrayDeque<Integer> _workQueue = new ArrayDeque<>();
-    void forNeighbors(int S, Consumer<Integer> action) {
-        int[] verticalDistance = new int[]{-1, 1, 0, 0};
-        int[] horizontalDistance  = new int[]{0, 0, -1, 1};
-        int row = row(S);
-        int col = col(S);
-        for (int i = 0; i < 4; i++) {
-            int neighbour_r = row + verticalDistance[i];
-            int neighbour_c = col + horizontalDistance[i];
-            if (exists(neighbour_r, neighbour_c)) {
-                action.accept(sqNum(neighbour_r, neighbour_c));
-            }
+        _current += 1;
+        if (_current == _history.size()) {
+            _history.add(new GameState());
         }
+        _history.get(_current).saveState();
     }
 
     private boolean isOverFlow(int n) {
@@ -360,79 +436,488 @@ class Board {
         return false;
     }
 
+    /** Topple cascades on this board in rounds, and large ones in parallel
+     *  using POOL, or one square at a time if POOL is null (see jump).
+     *  The resulting positions are identical except after a winning
+     *  move. */
+    void setCascadePool(ForkJoinPool pool) {
+        _cascadePool = pool;
+    }
 
+    /** Record each subsequent move and the steps of the cascade it causes
+     *  in EVENTS, or stop recording if EVENTS is null.  The record of a
+     *  move is complete when my notifier hears of it.  Cascades are
+     *  toppled sequentially while recording. */
+    void setCascadeEvents(CascadeEvents events) {
+        _events = events;
+    }
 
     /** Do all jumping on this board, assuming that initially, S is the only
-     *  square that might be over-full. */
+     *  square that might be over-full.  Normally, over-full squares topple
+     *  one at a time, in the order in which they became over-full, and we
+     *  stop as soon as the mover owns every square.  With a cascade pool
+     *  (see setCascadePool), jumping instead proceeds in rounds: every
+     *  square that is over-full at the start of a round gives one spot to
+     *  each of its neighbors, and we stop only between rounds.  Since the
+     *  result of a round does not depend on the order in which its squares
+     *  topple, the tiled ParallelCascade arrives at exactly the same
+     *  position.  The two ways give the same position after any move that
+     *  does not win; after a winning move, the squares left over-full when
+     *  jumping stops may differ.  Sets _cascadeRounds and _cascadeTopples
+     *  to the numbers of rounds and of squares toppled, or to -1 if the
+     *  cascade is done in parallel. */
     private void jump(int S) {
-        Side player = whoseMove().opposite();
-        _workQueue.add(S);
-        while(!_workQueue.isEmpty() && getWinner() == null) {
-            int pos = _workQueue.pop();
-            forNeighbors(pos, (neighbor_n) -> {
-                if (!isOverFlow(neighbor_n)) {
-                    internalSet(pos, get(pos).getSpots() - 1, player);
-                    internalSet(neighbor_n, get(neighbor_n).getSpots() + 1, player);
-
-                    if (isOverFlow(neighbor_n)) {
-                        _workQueue.add(neighbor_n);
-                    }
+        byte player = _sides[S];
+        int others = _size * _size - numOfSide(SIDES[player]);
+        if (_frontier == null) {
+            _frontier = new int[_size * _size];
+            _candidates = new int[_size * _size];
+            _stamps = new int[_size * _size];
+            _generations = new int[_size * _size];
+            _queued = new boolean[_size * _size];
+        }
+        if (_cascadePool == null) {
+            sequentialCascade(S, player, others);
+        } else {
+            roundCascade(S, player, others);
+        }
+    }
+
+    /** Do the jumping for jump(S) one square at a time, where PLAYER is
+     *  the mover and OTHERS the number of squares PLAYER does not own.
+     *  _frontier is a circular queue of the over-full squares, each with
+     *  its generation in _generations: 1 for S, and otherwise one more
+     *  than that of the square whose topple put it in the queue.  A square
+     *  is queued at most once at a time, and topples just once when it
+     *  leaves the queue, going back in if it is still over-full. */
+    private void sequentialCascade(int S, byte player, int others) {
+        int size = _size * _size;
+        int head, count, rounds, topples;
+        _frontier[0] = S;
+        _generations[0] = 1;
+        _queued[S] = true;
+        head = rounds = topples = 0;
+        count = 1;
+        while (count > 0 && others > 0) {
+            int n = _frontier[head], generation = _generations[head];
+            head = (head + 1) % size;
+            count -= 1;
+            _queued[n] = false;
+            rounds = Math.max(rounds, generation);
+            topples += 1;
+            _round += 1;
+            _numCandidates = 0;
+            others -= topple(n, player);
+            if (_events != null) {
+                recordTopple(generation, n);
+            }
+            for (int k = 0; k < _numCandidates; k += 1) {
+                int m = _candidates[k];
+                if (!_queued[m] && _spots[m] > _capacity[m]) {
+                    int tail = (head + count) % size;
+                    _frontier[tail] = m;
+                    _generations[tail] = generation + 1;
+                    _queued[m] = true;
+                    count += 1;
                 }
-            });
+            }
+        }
+        for (int k = 0; k < count; k += 1) {
+            _queued[_frontier[(head + k) % size]] = false;
+        }
+        _cascadeRounds = rounds;
+        _cascadeTopples = topples;
+    }
+
+    /** Do the jumping for jump(S) in rounds, in parallel on my cascade
+     *  pool if the board is large enough, where PLAYER is the mover and
+     *  OTHERS the number of squares PLAYER does not own. */
+    private void roundCascade(int S, byte player, int others) {
+        if (_events == null && !_diffing
+            && _size > ParallelCascade.TILE_SIZE) {
+            if (_parallelCascade == null) {
+                _parallelCascade =
+                    new ParallelCascade(_size, _spots, _sides, _capacity);
+            }
+            _parallelCascade.jump(S, player, others, _cascadePool);
+            if (_keys != null) {
+                computeKeys(_keys);
+            }
+            recount();
+            _cascadeRounds = _cascadeTopples = -1;
+            return;
+        }
+        int count, round, topples;
+        _frontier[0] = S;
+        count = 1;
+        round = topples = 0;
+        while (count > 0 && others > 0) {
+            _round += 1;
+            round += 1;
+            topples += count;
+            _numCandidates = 0;
+            for (int k = 0; k < count; k += 1) {
+                others -= topple(_frontier[k], player);
+                if (_events != null) {
+                    recordTopple(round, _frontier[k]);
+                }
+            }
+            count = 0;
+            for (int k = 0; k < _numCandidates; k += 1) {
+                int n = _candidates[k];
+                if (_spots[n] > _capacity[n]) {
+                    _frontier[count] = n;
+                    count += 1;
+                }
+            }
         }
+        _cascadeRounds = round;
+        _cascadeTopples = topples;
+    }
 
+    /** Move one spot from over-full square #S to each of its neighbors,
+     *  giving them all to PLAYER, and record the squares that may now be
+     *  over-full in _candidates.  Returns the number of squares that did
+     *  not belong to PLAYER before. */
+    private int topple(int S, byte player) {
+        int r = S / _size, c = S % _size;
+        int converted;
+        int old = code(S);
+        _spots[S] -= _capacity[S];
+        changed(S, old);
+        addCandidate(S);
+        converted = 0;
+        if (r > 0) {
+            converted += give(S - _size, player);
+        }
+        if (r < _size - 1) {
+            converted += give(S + _size, player);
+        }
+        if (c > 0) {
+            converted += give(S - 1, player);
+        }
+        if (c < _size - 1) {
+            converted += give(S + 1, player);
+        }
+        return converted;
+    }
 
-        // FIXME
+    /** Add one spot of PLAYER's to square #N during a topple.  Returns 1 if
+     *  N did not already belong to PLAYER, and otherwise 0. */
+    private int give(int n, byte player) {
+        int old = code(n);
+        int converted = _sides[n] != player ? 1 : 0;
+        _spots[n] += 1;
+        _sides[n] = player;
+        changed(n, old);
+        addCandidate(n);
+        return converted;
+    }
+
+    /** Add to _events the steps of the toppling of square #S in ROUND. */
+    private void recordTopple(int round, int S) {
+        int r = S / _size, c = S % _size;
+        if (r > 0) {
+            _events.add(round, S, S - _size);
+        }
+        if (r < _size - 1) {
+            _events.add(round, S, S + _size);
+        }
+        if (c > 0) {
+            _events.add(round, S, S - 1);
+        }
+        if (c < _size - 1) {
+            _events.add(round, S, S + 1);
+        }
+    }
+
+    /** Record square #N as possibly over-full at the end of this round. */
+    private void addCandidate(int n) {
+        if (_stamps[n] != _round) {
+            _stamps[n] = _round;
+            _candidates[_numCandidates] = n;
+            _numCandidates += 1;
+        }
+    }
+
+    /** Return a Zobrist hash key for my position.  Equal positions (of
+     *  the same size) have equal keys, and unequal ones almost never do. */
+    long key() {
+        return keys()[0];
+    }
+
+    /** Return the canonical key of my position: the least of the keys of
+     *  its images under the SYMMETRIES symmetries of the square (rotations
+     *  and reflections).  Positions that are rotations or reflections of
+     *  one another have the same canonical key. */
+    long canonicalKey() {
+        long[] keys = keys();
+        long least = keys[0];
+        for (int t = 1; t < SYMMETRIES; t += 1) {
+            least = Math.min(least, keys[t]);
+        }
+        return least;
+    }
+
+    /** Return the number of a symmetry (see transform) that maps my
+     *  position to its canonical orientation: the image whose key is my
+     *  canonicalKey.  Move N on my position corresponds to move
+     *  transform(canonicalSymmetry(), N, size()) on that image. */
+    int canonicalSymmetry() {
+        long[] keys = keys();
+        int best = 0;
+        for (int t = 1; t < SYMMETRIES; t += 1) {
+            if (keys[t] < keys[best]) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /** Return the symmetry that undoes symmetry #T (see transform). */
+    static int inverse(int t) {
+        return t == 1 ? 3 : t == 3 ? 1 : t;
+    }
+
+    /** Return the set of symmetries that map my position to itself, as a
+     *  bit mask in which bit T is set iff symmetry #T (see transform) does
+     *  so.  Bit 0 (the identity) is always set. */
+    int symmetries() {
+        long[] keys = keys();
+        int mask = 0;
+        for (int t = 0; t < SYMMETRIES; t += 1) {
+            if (keys[t] == keys[0]) {
+                mask |= 1 << t;
+            }
+        }
+        return mask;
+    }
+
+    /** Return the number of the square to which symmetry #T maps square #N
+     *  of an N x N board (written SIZE here).  Symmetries 0-3 are rotations
+     *  by 0, 90, 180 and 270 degrees; 4-7 are the reflections about the
+     *  vertical axis, horizontal axis, main diagonal and anti-diagonal. */
+    static int transform(int t, int n, int size) {
+        int r = n / size, c = n % size, m = size - 1;
+        switch (t) {
+        case 0:
+            return n;
+        case 1:
+            return c * size + m - r;
+        case 2:
+            return (m - r) * size + m - c;
+        case 3:
+            return (m - c) * size + r;
+        case 4:
+            return r * size + m - c;
+        case 5:
+            return (m - r) * size + c;
+        case 6:
+            return c * size + r;
+        default:
+            return (m - c) * size + m - r;
+        }
+    }
+
+    /** Return my keys under each symmetry: element T is the key of the
+     *  image of my position under symmetry #T.  For boards too large to
+     *  maintain keys as they change, computes them into scratch space. */
+    private long[] keys() {
+        if (_keys != null) {
+            return _keys;
+        }
+        computeKeys(_scratchKeys);
+        return _scratchKeys;
+    }
+
+    /** Compute my keys under each symmetry from scratch into KEYS. */
+    private void computeKeys(long[] keys) {
+        Arrays.fill(keys, zobrist(-_size));
+        for (int n = 0; n < _size * _size; n += 1) {
+            int code = code(n);
+            for (int t = 0; t < SYMMETRIES; t += 1) {
+                keys[t] ^= zobrist(transform(t, n, _size) * CODES + code);
+            }
+        }
+    }
+
+    /** Record a change to square #N, whose code (see code) was OLD, in
+     *  my keys, counts, and sets of squares and, if I have listeners, for
+     *  them. */
+    private void changed(int n, int old) {
+        rekey(n, old);
+        int oldSide = old >> 4, oldSpots = old & 15;
+        _numSpots += _spots[n] - oldSpots;
+        if (oldSide != _sides[n]) {
+            long bit = 1L << n;
+            _numOwned[oldSide] -= 1;
+            _numOwned[_sides[n]] += 1;
+            _owned[oldSide][n >>> 6] ^= bit;
+            _owned[_sides[n]][n >>> 6] ^= bit;
+        }
+        if ((oldSpots > _capacity[n]) != (_spots[n] > _capacity[n])) {
+            _overFull[n >>> 6] ^= 1L << n;
+        }
+        if (_tupleIndex != null) {
+            _networkSum += _network.update(n, old, code(n), _tupleIndex);
+        }
+        if (_diffing) {
+            touch(n, old);
+        }
+    }
+
+    /** Recompute my counts and sets of squares (_numSpots, _numOwned,
+     *  _owned, and _overFull), and my network sum, from scratch. */
+    private void recount() {
+        _numSpots = 0;
+        Arrays.fill(_numOwned, 0);
+        for (long[] owned : _owned) {
+            Arrays.fill(owned, 0);
+        }
+        Arrays.fill(_overFull, 0);
+        for (int n = 0; n < _size * _size; n += 1) {
+            _numSpots += _spots[n];
+            _numOwned[_sides[n]] += 1;
+            _owned[_sides[n]][n >>> 6] |= 1L << n;
+            if (_spots[n] > _capacity[n]) {
+                _overFull[n >>> 6] |= 1L << n;
+            }
+        }
+        if (_tupleIndex != null) {
+            _networkSum = _network.reset(this, _tupleIndex);
+        }
+    }
+
+    /** Update my keys for a change of square #N from code OLD. */
+    private void rekey(int n, int old) {
+        if (_keys == null) {
+            return;
+        }
+        int code = code(n);
+        for (int t = 0; t < SYMMETRIES; t += 1) {
+            int m = transform(t, n, _size) * CODES;
+            _keys[t] ^= ZOBRIST[m + old] ^ ZOBRIST[m + code];
+        }
+    }
+
+    /** Return a number from 0 to CODES-1 identifying the contents of
+     *  square #N. */
+    private int code(int n) {
+        assert _spots[n] < 16;
+        return 16 * _sides[n] + _spots[n];
+    }
+
+    /** Return the Zobrist value for X: for X >= 0, the value for
+     *  square X / CODES having code X % CODES. */
+    private static long zobrist(int x) {
+        if (x >= 0 && x < ZOBRIST.length) {
+            return ZOBRIST[x];
+        }
+        return mix(x);
+    }
+
+    /** Return a pseudo-random function of X (the SplitMix64 finalizer). */
+    private static long mix(long x) {
+        long z = x + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 
     /** Returns my dumped representation. */
     @Override
     public String toString() {
-        Formatter out = new Formatter();
-        out.format("===\n");
-        for (int i = 0; i < size(); i++) {
-            out.format("    ");
-            for (int j = 0; j < size(); j++) {
-                if (j == size() - 1) {
-                    out.format(squareToString(_squares[i][j]));
-                } else {
-                    out.format("%-3s", squareToString(_squares[i][j]));
-                }
-            }
-            out.format("\n");
-        }
-        out.format("===\n");
+        StringBuilder out = new StringBuilder(8 + 3 * size() * (size() + 2));
+        render(out);
         return out.toString();
     }
 
-    private String squareToString(Square s) {
-        Side side = s.getSide();
-        String spots = Integer.toString(s.getSpots());
-        String result = spots;
-        switch (side) {
-            case RED: result += "r";
-            break;
-            case BLUE: result += "b";
-            break;
-            default: result += "-";
+    /** Append my dumped representation (as returned by toString) to OUT. */
+    void render(StringBuilder out) {
+        int N = size();
+        out.append("===\n");
+        for (int n = 0; n < N * N; n += 1) {
+            if (n % N == 0) {
+                out.append("    ");
+            }
+            int start = out.length();
+            appendSquare(out, get(n));
+            if (n % N == N - 1) {
+                out.append('\n');
+            } else {
+                pad(out, start, 3);
+            }
         }
-        return result;
+        out.append("===\n");
     }
 
     /** Returns an external rendition of me, suitable for human-readable
      *  textual display, with row and column numbers.  This is distinct
      *  from the dumped representation (returned by toString). */
     public String toDisplayString() {
-        String[] lines = toString().trim().split("\\R");
-        Formatter out = new Formatter();
-        for (int i = 1; i + 1 < lines.length; i += 1) {
-            out.format("%2d %s%n", i, lines[i].trim());
+        StringBuilder out = new StringBuilder(4 * size() * (size() + 2));
+        renderDisplay(out);
+        return out.toString();
+    }
+
+    /** Append my external rendition (as returned by toDisplayString) to
+     *  OUT. */
+    void renderDisplay(StringBuilder out) {
+        int N = size();
+        String eol = System.lineSeparator();
+        for (int n = 0; n < N * N; n += 1) {
+            int start = out.length();
+            if (n % N == 0) {
+                out.append(n / N + 1);
+                padLeft(out, start, 2);
+                out.append(' ');
+                start = out.length();
+            }
+            appendSquare(out, get(n));
+            if (n % N == N - 1) {
+                out.append(eol);
+            } else {
+                pad(out, start, 3);
+            }
         }
-        out.format("  ");
-        for (int i = 1; i <= size(); i += 1) {
-            out.format("%3d", i);
+        out.append("  ");
+        for (int c = 1; c <= N; c += 1) {
+            int start = out.length();
+            out.append(c);
+            padLeft(out, start, 3);
+        }
+    }
+
+    /** Append the dump-format token for SQ (e.g., "2r") to OUT. */
+    private static void appendSquare(StringBuilder out, Square sq) {
+        out.append(sq.getSpots());
+        switch (sq.getSide()) {
+        case RED:
+            out.append('r');
+            break;
+        case BLUE:
+            out.append('b');
+            break;
+        default:
+            out.append('-');
+            break;
+        }
+    }
+
+    /** Append blanks to OUT until the text appended since position START
+     *  is at least WIDTH characters long. */
+    private static void pad(StringBuilder out, int start, int width) {
+        while (out.length() - start < width) {
+            out.append(' ');
+        }
+    }
+
+    /** Insert blanks at position START of OUT until the text from there
+     *  to the end is at least WIDTH characters long. */
+    private static void padLeft(StringBuilder out, int start, int width) {
+        while (out.length() - start < width) {
+            out.insert(start, ' ');
         }
-        return out.toString();
     }
 
     /** Returns the number of neighbors of the square at row R, column C. */
@@ -471,8 +956,8 @@ class Board {
             }
             for (int i = 0; i < size(); i++) {
                 for (int j = 0; j < size(); j++) {
-                    Square square = _squares[i][j];
-                    Square Bsquare = B._squares[i][j];
+                    Square square = get(i * size() + j);
+                    Square Bsquare = B.get(i * size() + j);
                     if (!square.getSide().equals(Bsquare.getSide())) {
                         return false;
                     }
@@ -491,6 +976,104 @@ class Board {
         return numPieces();
     }
 
+    /** Keep the sum of the weights that NETWORK selects for my position
+     *  (see TupleNetwork) up to date as my squares change, as I do my
+     *  keys, whenever my size is NETWORK's.  A null NETWORK stops this. */
+    void setNetwork(TupleNetwork network) {
+        _network = network;
+        _tupleIndex = network != null && network.size() == _size
+            ? new int[network.placements()] : null;
+        if (_tupleIndex != null) {
+            _networkSum = network.reset(this, _tupleIndex);
+        }
+    }
+
+    /** Return the network whose sum I keep (see setNetwork), or null if
+     *  there is none or my size is not its. */
+    TupleNetwork network() {
+        return _tupleIndex == null ? null : _network;
+    }
+
+    /** Return the sum of the weights that network() selects for my
+     *  position.  Valid only if network() is not null. */
+    double networkSum() {
+        return _networkSum;
+    }
+
+    /** Start telling LISTENER of each change in my contents, beginning
+     *  with a call to its reset. */
+    void addListener(BoardListener listener) {
+        _listeners.add(listener);
+        _diffing = true;
+        listener.reset(_readonlyBoard);
+    }
+
+    /** Stop telling LISTENER of changes. */
+    void removeListener(BoardListener listener) {
+        _listeners.remove(listener);
+        _diffing = !_listeners.isEmpty();
+    }
+
+    /** Note that square #N, whose code was OLD, is changing, for the
+     *  next fireChanges. */
+    private void touch(int n, int old) {
+        if (_diffStamps == null || _diffStamps.length != _size * _size) {
+            int M = _size * _size;
+            _diffStamps = new int[M];
+            _diffOld = new byte[M];
+            _diffSquares = new int[M];
+            _diffBefore = new byte[M];
+            _diffAfter = new byte[M];
+            _numDiffs = 0;
+        }
+        if (_diffStamps[n] != _diffEpoch) {
+            _diffStamps[n] = _diffEpoch;
+            _diffOld[n] = (byte) old;
+            _diffSquares[_numDiffs] = n;
+            _numDiffs += 1;
+        }
+    }
+
+    /** Tell my listeners of the squares changed since the last report,
+     *  as the result of a move by PLAYER to square #MOVE (see
+     *  BoardListener.changed). */
+    private void fireChanges(int move, Side player) {
+        if (!_diffing) {
+            return;
+        }
+        int count = 0;
+        for (int k = 0; k < _numDiffs; k += 1) {
+            int n = _diffSquares[k];
+            int code = code(n);
+            if (code != _diffOld[n]) {
+                _diffSquares[count] = n;
+                _diffBefore[count] = _diffOld[n];
+                _diffAfter[count] = (byte) code;
+                count += 1;
+            }
+        }
+        _numDiffs = 0;
+        _diffEpoch += 1;
+        if (count > 0) {
+            for (BoardListener listener : _listeners) {
+                listener.changed(_readonlyBoard, move, player, count,
+                                 _diffSquares, _diffBefore, _diffAfter);
+            }
+        }
+    }
+
+    /** Tell my listeners that my contents have been replaced. */
+    private void fireReset() {
+        if (!_diffing) {
+            return;
+        }
+        _numDiffs = 0;
+        _diffEpoch += 1;
+        for (BoardListener listener : _listeners) {
+            listener.reset(_readonlyBoard);
+        }
+    }
+
     /** Set my notifier to NOTIFY. */
     public void setNotifier(Consumer<Board> notify) {
         _notifier = notify;
@@ -506,26 +1089,102 @@ class Board {
      *  redoing of moves. */
     private class GameState {
         GameState() {
-            savedCells = new Square[size()][size()];
+            savedSpots = new byte[size() * size()];
+            savedSides = new byte[size() * size()];
         }
 
         void saveState() {
-            for (int i = 0; i < size(); i++) {
-                arraycopy(_squares[i], 0, savedCells[i], 0, size());
+            if (savedSpots.length != _spots.length) {
+                savedSpots = new byte[_spots.length];
+                savedSides = new byte[_sides.length];
+            }
+            if (savedOverFull.length != _overFull.length) {
+                savedOwned = new long[SIDES.length][_overFull.length];
+                savedOverFull = new long[_overFull.length];
+            }
+            arraycopy(_spots, 0, savedSpots, 0, savedSpots.length);
+            arraycopy(_sides, 0, savedSides, 0, savedSides.length);
+            if (_keys != null) {
+                arraycopy(_keys, 0, savedKeys, 0, SYMMETRIES);
+            }
+            for (int s = 0; s < SIDES.length; s += 1) {
+                arraycopy(_owned[s], 0, savedOwned[s], 0,
+                          savedOverFull.length);
+            }
+            arraycopy(_overFull, 0, savedOverFull, 0, savedOverFull.length);
+            arraycopy(_numOwned, 0, savedNumOwned, 0, SIDES.length);
+            savedNumSpots = _numSpots;
+            savedNetwork = network();
+            if (savedNetwork != null) {
+                if (savedTupleIndex.length != _tupleIndex.length) {
+                    savedTupleIndex = new int[_tupleIndex.length];
+                }
+                arraycopy(_tupleIndex, 0, savedTupleIndex, 0,
+                          _tupleIndex.length);
+                savedNetworkSum = _networkSum;
             }
         }
 
         void restoreState() {
-            for (int i = 0; i < size(); i++) {
-                arraycopy(savedCells[i], 0, _squares[i], 0, size());
+            arraycopy(savedSpots, 0, _spots, 0, savedSpots.length);
+            arraycopy(savedSides, 0, _sides, 0, savedSides.length);
+            if (_keys != null) {
+                arraycopy(savedKeys, 0, _keys, 0, SYMMETRIES);
+            }
+            for (int s = 0; s < SIDES.length; s += 1) {
+                arraycopy(savedOwned[s], 0, _owned[s], 0,
+                          savedOverFull.length);
+            }
+            arraycopy(savedOverFull, 0, _overFull, 0, savedOverFull.length);
+            arraycopy(savedNumOwned, 0, _numOwned, 0, SIDES.length);
+            _numSpots = savedNumSpots;
+            if (_tupleIndex != null && savedNetwork == _network) {
+                arraycopy(savedTupleIndex, 0, _tupleIndex, 0,
+                          _tupleIndex.length);
+                _networkSum = savedNetworkSum;
+            } else if (_tupleIndex != null) {
+                _networkSum = _network.reset(Board.this, _tupleIndex);
             }
         }
-        private Square[][] savedCells;
+        private byte[] savedSpots;
+        private byte[] savedSides;
+        private final long[] savedKeys = new long[SYMMETRIES];
+        private long[][] savedOwned = new long[SIDES.length][0];
+        private long[] savedOverFull = new long[0];
+        private final int[] savedNumOwned = new int[SIDES.length];
+        private int savedNumSpots;
+        private TupleNetwork savedNetwork;
+        private int[] savedTupleIndex = new int[0];
+        private double savedNetworkSum;
 
 
     }
 
 
+    /** The Sides, indexed by ordinal. */
+    private static final Side[] SIDES = Side.values();
+
+    /** Number of symmetries of a square board. */
+    static final int SYMMETRIES = 8;
+
+    /** Largest size of board whose keys are kept up to date as it
+     *  changes.  Larger boards compute them when asked. */
+    static final int MAX_KEYED_SIZE = 32;
+
+    /** Number of distinct square codes. */
+    private static final int CODES = 48;
+
+    /** Zobrist values for each square of a board of up to MAX_KEYED_SIZE
+     *  on a side and each code, indexed as for zobrist. */
+    private static final long[] ZOBRIST =
+        new long[MAX_KEYED_SIZE * MAX_KEYED_SIZE * CODES];
+
+    static {
+        for (int x = 0; x < ZOBRIST.length; x += 1) {
+            ZOBRIST[x] = mix(x);
+        }
+    }
+
     /** A notifier that does nothing. */
     private static final Consumer<Board> NOP = (s) -> { };
 
@@ -540,21 +1199,111 @@ class Board {
     /** Size of the broard. */
     private int _size;
 
-    /** The content of the board */
-    private Square[][] _squares;
+    /** The number of spots on each square, in row-major order. */
+    private byte[] _spots;
+
+    /** The ordinal of the Side owning each square, in row-major order. */
+    private byte[] _sides;
+
+    /** The number of neighbors of each square, in row-major order. */
+    private byte[] _capacity;
+
+    /** The squares of each side, indexed by ordinal, as bit sets: square
+     *  #n is bit n % 64 of word n / 64. */
+    private long[][] _owned;
+
+    /** The squares holding more spots than they have neighbors, as a bit
+     *  set like those of _owned. */
+    private long[] _overFull;
+
+    /** The number of squares of each side, indexed by ordinal. */
+    private final int[] _numOwned = new int[SIDES.length];
+
+    /** The total number of spots on the board. */
+    private int _numSpots;
+
+    /** The squares that topple in the current round of jump, or the queue
+     *  of over-full squares of sequentialCascade. */
+    private int[] _frontier;
+
+    /** Squares that may be over-full at the end of the current round of
+     *  jump, of which there are _numCandidates. */
+    private int[] _candidates;
+
+    /** Number of valid entries in _candidates. */
+    private int _numCandidates;
+
+    /** _stamps[n] == _round iff square #n is already in _candidates. */
+    private int[] _stamps;
+
+    /** Generations of the squares queued in _frontier by
+     *  sequentialCascade. */
+    private int[] _generations;
+
+    /** _queued[n] iff square #n is queued in _frontier by
+     *  sequentialCascade. */
+    private boolean[] _queued;
+
+    /** Number of jump rounds performed on this board. */
+    private int _round;
+
+    /** Rounds and squares toppled in the last cascade, or -1 if it was
+     *  done in parallel. */
+    private int _cascadeRounds, _cascadeTopples;
+
+    /** Pool used to topple large cascades, or null for sequential. */
+    private ForkJoinPool _cascadePool;
+
+    /** Objects told of changes to my contents. */
+    private final ArrayList<BoardListener> _listeners = new ArrayList<>();
+    /** True iff I have listeners, and so record changed squares. */
+    private boolean _diffing;
+    /** _diffStamps[n] == _diffEpoch iff square #n has changed since the
+     *  last report to listeners. */
+    private int[] _diffStamps;
+    /** Number of reports to listeners (plus one). */
+    private int _diffEpoch = 1;
+    /** Code of each changed square before its first change. */
+    private byte[] _diffOld;
+    /** The changed squares, of which there are _numDiffs. */
+    private int[] _diffSquares;
+    /** Number of valid entries in _diffSquares. */
+    private int _numDiffs;
+    /** Old and new codes of the changed squares, as reported. */
+    private byte[] _diffBefore, _diffAfter;
+
+    /** Recipient of the steps of each move's cascade, or null. */
+    private CascadeEvents _events;
+
+    /** Parallel cascade engine for my current size, created on demand. */
+    private ParallelCascade _parallelCascade;
+
+    /** My keys under each symmetry (see keys), or null if my size is
+     *  greater than MAX_KEYED_SIZE. */
+    private long[] _keys;
+
+    /** Scratch space for the keys of a large board. */
+    private final long[] _scratchKeys = new long[SYMMETRIES];
+
+    /** The network set by setNetwork, or null. */
+    private TupleNetwork _network;
+
+    /** The index of the weight selected by each of _network's placed
+     *  tuples for my position, or null if I keep no network sum. */
+    private int[] _tupleIndex;
+
+    /** Sum of the weights indexed by _tupleIndex. */
+    private double _networkSum;
 
     /** Number of moves */
     private int _numMoves;
 
-    /** History of the board */
-    private ArrayDeque<GameState> _history;
-//    /** The position of the current state in _history.  This is always
-//     *  non-negative and <=_lastHistory.  */
-//    private int _current;
-//
-//    /** The index of the last valid state in _history, including those
-//     *  that can be redone (with indices >_current). */
-//    private int _lastHistory;
+    /** History of the board.  Entries past _current are left over from
+     *  undone moves and are reused by later ones. */
+    private ArrayList<GameState> _history;
+    /** The position of the current state in _history.  This is always
+     *  non-negative except while the history is being reset. */
+    private int _current;
 
 
 
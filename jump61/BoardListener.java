@@ -0,0 +1,27 @@
+package jump61;
+
+/** An object told of each change in the contents of a Board to which it
+ *  has been added by Board.addListener.  Changes are described by the
+ *  squares they affect, so that a listener can keep up with a board in
+ *  time proportional to the number of squares changed rather than to the
+ *  size of the board.  The contents of a square are given as a code:
+ *  16 * (ordinal of its Side) + (number of spots).  Listeners are called
+ *  on the thread changing the board, before its notifier.
+ *  @author Tianyi Xu
+ */
+interface BoardListener {
+
+    /** BOARD (a read-only view) has been cleared, resized, or replaced
+     *  as a whole, so that its contents must be read afresh.  Also called
+     *  when I am first added to BOARD. */
+    void reset(Board board);
+
+    /** A move by PLAYER to square #MOVE on BOARD (a read-only view) has
+     *  changed the COUNT squares SQUARES[0 .. COUNT-1], from the codes
+     *  BEFORE[0 .. COUNT-1] to the codes AFTER[0 .. COUNT-1].  MOVE is -1
+     *  and PLAYER is null for a change made by setting a square directly.
+     *  The arrays belong to BOARD and are valid only during the call. */
+    void changed(Board board, int move, Side player, int count,
+                 int[] squares, byte[] before, byte[] after);
+
+}
@@ -0,0 +1,42 @@
+package jump61;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** A supply of Boards for threads that each need a private copy of a
+ *  position for a while, such as searches.  A Board taken from a pool
+ *  is filled in with Board.copyFrom, which reuses its arrays when the
+ *  size is unchanged, so that once the pool holds as many boards as are
+ *  in use at once, taking one allocates nothing.  Boards given back to a
+ *  pool must have no notifier or listeners.  Any number of threads may
+ *  use a pool at once.
+ *  @author Tianyi Xu
+ */
+class BoardPool {
+
+    /** Return a Board holding a copy of POSITION, with a clear undo
+     *  history, that belongs to the caller until it is given back with
+     *  release. */
+    Board take(Board position) {
+        Board board = _free.poll();
+        if (board == null) {
+            board = new Board(position.size());
+        }
+        board.copyFrom(position);
+        return board;
+    }
+
+    /** Give BOARD, taken from me, back to me.  It must not be used after
+     *  this. */
+    void release(Board board) {
+        _free.add(board);
+    }
+
+    /** Return the number of boards waiting to be taken. */
+    int available() {
+        return _free.size();
+    }
+
+    /** Boards not in use. */
+    private final ConcurrentLinkedQueue<Board> _free =
+        new ConcurrentLinkedQueue<>();
+}
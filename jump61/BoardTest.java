@@ -8,6 +8,12 @@ package jump61;
 
 import static jump61.Side.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -66,6 +72,418 @@ public class BoardTest {
         System.out.println(B);
     }
 
+    @Test
+    public void testParallelCascade() {
+        Random gen = new Random(61);
+        Board B = new Board(200);
+        for (int n = 0; n < B.size() * B.size(); n += 1) {
+            int spots = 1 + gen.nextInt(B.neighbors(n));
+            B.set(B.row(n), B.col(n), spots, gen.nextInt(4) == 0 ? BLUE : RED);
+        }
+        Board P = new Board(B);
+        P.setCascadePool(new ForkJoinPool(4));
+        for (int k = 0; k < 20; k += 1) {
+            int n = gen.nextInt(B.size() * B.size());
+            Side player = k % 2 == 0 ? RED : BLUE;
+            B.set(B.row(n), B.col(n), B.neighbors(n), player);
+            P.set(P.row(n), P.col(n), P.neighbors(n), player);
+            B.addSpot(player, n);
+            P.addSpot(player, n);
+            assertEquals("parallel cascade differs at move " + k, B, P);
+        }
+    }
+
+    /** The sequential and round-based cascades agree after every move
+     *  that does not win.  After a winning move, they agree on the winner,
+     *  but may stop with different squares still over-full. */
+    @Test
+    public void testCascadeEngines() {
+        Random gen = new Random(26);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        int wins = 0;
+        for (int game = 0; game < 200; game += 1) {
+            int N = 2 + gen.nextInt(5);
+            Board sequential = new Board(N), rounds = new Board(N);
+            rounds.setCascadePool(pool);
+            int[] moves = new int[N * N];
+            while (sequential.getWinner() == null) {
+                Side player = sequential.whoseMove();
+                int count = sequential.legalMoves(player, moves);
+                int move = moves[gen.nextInt(count)];
+                sequential.addSpot(player, move);
+                rounds.addSpot(player, move);
+                assertEquals("winner", sequential.getWinner(),
+                             rounds.getWinner());
+                if (sequential.getWinner() == null) {
+                    assertEquals("position after move", sequential, rounds);
+                    assertEquals("key", sequential.key(), rounds.key());
+                    checkCounts(sequential);
+                } else {
+                    wins += 1;
+                    assertEquals("spots after win", sequential.numPieces(),
+                                 rounds.numPieces());
+                }
+            }
+        }
+        pool.shutdown();
+        assertEquals("games won", 200, wins);
+    }
+
+    @Test
+    public void testKernels() {
+        Kernels scalar = new ScalarKernels();
+        Random gen = new Random(27);
+        for (int N : new int[] { 2, 6, 37, 130 }) {
+            byte[] spots = new byte[N * N], sides = new byte[N * N],
+                capacity = new byte[N * N];
+            for (int n = 0; n < N * N; n += 1) {
+                capacity[n] = (byte) (2 + gen.nextInt(3));
+                spots[n] = (byte) (1 + gen.nextInt(capacity[n]));
+                sides[n] = (byte) gen.nextInt(3);
+            }
+            for (byte side = 0; side < 3; side += 1) {
+                assertEquals("critical",
+                             scalar.countCritical(spots, capacity, sides,
+                                                  side),
+                             Kernels.INSTANCE.countCritical(spots, capacity,
+                                                            sides, side));
+            }
+        }
+    }
+
+    @Test
+    public void testCascadeEvents() {
+        Random gen = new Random(41);
+        CascadeEvents events = new CascadeEvents();
+        for (int N : new int[] { 3, 6, 20 }) {
+            Board B = randomBoard(N, gen);
+            B.setCascadeEvents(events);
+            int rounds = 0;
+            while (B.getWinner() == null) {
+                Side player = B.whoseMove();
+                int move;
+                do {
+                    move = gen.nextInt(N * N);
+                } while (!B.isLegal(player, move));
+                int[] spots = new int[N * N];
+                Side[] sides = new Side[N * N];
+                for (int n = 0; n < N * N; n += 1) {
+                    spots[n] = B.get(n).getSpots();
+                    sides[n] = B.get(n).getSide();
+                }
+                B.addSpot(player, move);
+                assertEquals(move, events.move());
+                assertEquals(player, events.player());
+                spots[move] += 1;
+                sides[move] = player;
+                for (int k = 0; k < events.size(); k += 1) {
+                    assertTrue(k == 0
+                               || events.round(k - 1) <= events.round(k));
+                    spots[events.source(k)] -= 1;
+                    spots[events.target(k)] += 1;
+                    sides[events.target(k)] = player;
+                }
+                rounds = Math.max(rounds, events.rounds());
+                for (int n = 0; n < N * N; n += 1) {
+                    assertEquals(B.get(n).getSpots(), spots[n]);
+                    assertEquals(B.get(n).getSide(), sides[n]);
+                }
+            }
+            assertTrue(rounds > 1);
+        }
+    }
+
+    @Test
+    public void testBoardListener() {
+        Random gen = new Random(42);
+        Board B = randomBoard(7, gen);
+        byte[][] mirror = new byte[1][];
+        int[] changes = new int[2];
+        B.addListener(new BoardListener() {
+            @Override
+            public void reset(Board board) {
+                mirror[0] = codes(board);
+            }
+
+            @Override
+            public void changed(Board board, int move, Side player,
+                                int count, int[] squares, byte[] before,
+                                byte[] after) {
+                for (int k = 0; k < count; k += 1) {
+                    assertEquals(mirror[0][squares[k]], before[k]);
+                    assertTrue(before[k] != after[k]);
+                    mirror[0][squares[k]] = after[k];
+                }
+                changes[0] += 1;
+                changes[1] += count;
+            }
+        });
+        for (int i = 0; i < 200; i += 1) {
+            if (B.getWinner() != null || i == 100) {
+                B.clear(5 + gen.nextInt(3));
+            }
+            int N = B.size();
+            int n = gen.nextInt(N * N);
+            if (i % 10 == 9) {
+                B.set(B.row(n), B.col(n), 1, RED);
+            } else if (B.isLegal(B.whoseMove(), n)) {
+                B.addSpot(B.whoseMove(), n);
+            }
+            assertArrayEquals("mirror", codes(B), mirror[0]);
+        }
+        assertTrue(changes[1] > changes[0]);
+    }
+
+    /** Return an N x N board with random contents generated by GEN, in
+     *  which no square is over-full. */
+    private static Board randomBoard(int N, Random gen) {
+        Board board = new Board(N);
+        for (int n = 0; n < N * N; n += 1) {
+            int spots = 1 + gen.nextInt(board.neighbors(n));
+            board.set(board.row(n), board.col(n), spots,
+                      gen.nextBoolean() ? RED : BLUE);
+        }
+        return board;
+    }
+
+    /** Return the codes of the squares of B, as for BoardListener. */
+    private static byte[] codes(Board B) {
+        byte[] result = new byte[B.size() * B.size()];
+        for (int n = 0; n < result.length; n += 1) {
+            result[n] = (byte) (16 * B.get(n).getSide().ordinal()
+                                + B.get(n).getSpots());
+        }
+        return result;
+    }
+
+    @Test
+    public void testPositionCodec() {
+        Random gen = new Random(38);
+        Board copy = new Board(2);
+        for (int N : new int[] { 2, 4, 5, 6, 37 }) {
+            Board B = randomBoard(N, gen);
+            B.set(1, 1, 1, WHITE);
+            long[] words = new long[PositionCodec.words(N) + 1];
+            assertEquals(words.length - 1,
+                         PositionCodec.encode(B, words, 1));
+            assertEquals(words.length - 1,
+                         PositionCodec.decode(words, 1, copy));
+            assertEquals("words", B.toString(), copy.toString());
+            assertEquals("key", B.key(), copy.key());
+            ByteBuffer buf = ByteBuffer.allocate(PositionCodec.bytes(N));
+            PositionCodec.write(B, buf);
+            assertEquals(0, buf.remaining());
+            buf.flip();
+            PositionCodec.read(buf, copy);
+            assertEquals("bytes", B.toString(), copy.toString());
+            PositionCodec.fromText(PositionCodec.toText(B), copy);
+            assertEquals("text", B.toString(), copy.toString());
+        }
+        Board B = new Board(4);
+        B.set(1, 1, 1, RED);
+        B.set(3, 3, 2, BLUE);
+        assertEquals("1000/0000/00a0/0000", PositionCodec.toText(B));
+        assertEquals(3, PositionCodec.encode(new Board(6)).length);
+    }
+
+    @Test
+    public void testPositionCodecRejectsOverFull() {
+        Board B = new Board(4);
+        for (String text : new String[] { "3000/0000/0000/0000",
+                                          "0400/0000/0000/0000",
+                                          "0000/0500/0000/0000",
+                                          "0000/0000/0000/000b" }) {
+            try {
+                PositionCodec.fromText(text, B);
+                fail("accepted " + text);
+            } catch (GameException excp) {
+                /* Expected. */
+            }
+        }
+        PositionCodec.fromText("2000/0300/0040/000a", B);
+        long[] words = PositionCodec.encode(B);
+        words[0] |= 7L << PositionCodec.HEADER_BITS;
+        try {
+            PositionCodec.decode(words, 0, B);
+            fail("decoded a corner with 7 spots");
+        } catch (GameException excp) {
+            /* Expected. */
+        }
+        ByteBuffer buf =
+            ByteBuffer.wrap(new byte[] { 0, 4, 0, 0, 0, 0, 0, 0, 0, 0x0f });
+        try {
+            PositionCodec.read(buf, B);
+            fail("read a blue corner with 7 spots");
+        } catch (GameException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testCanonicalKey() {
+        Random gen = new Random(35);
+        for (int N : new int[] { 5, 6, 40 }) {
+            Board board = new Board(N);
+            assertEquals("empty board symmetries", 0xff, board.symmetries());
+            for (int k = 0; k < 3 * N; k += 1) {
+                Side player = board.whoseMove();
+                int n;
+                do {
+                    n = gen.nextInt(N * N);
+                } while (!board.isLegal(player, n));
+                board.addSpot(player, n);
+            }
+            long key = board.key(), canonical = board.canonicalKey();
+            for (int t = 0; t < Board.SYMMETRIES; t += 1) {
+                Board image = new Board(N);
+                for (int n = 0; n < N * N; n += 1) {
+                    int m = Board.transform(t, n, N);
+                    image.set(image.row(m), image.col(m),
+                              board.get(n).getSpots(),
+                              board.get(n).getSide());
+                }
+                assertEquals("canonical key", canonical,
+                             image.canonicalKey());
+                assertEquals("key", t == 0, image.key() == key);
+            }
+            board.addSpot(board.whoseMove(), findLegal(board));
+            assertNotEquals("key after move", key, board.key());
+            board.undo();
+            assertEquals("key after undo", key, board.key());
+        }
+    }
+
+    @Test
+    public void testLegalMoves() {
+        Random gen = new Random(47);
+        for (int N : new int[] { 2, 6, 9 }) {
+            Board B = new Board(N);
+            int[] moves = new int[N * N];
+            for (int k = 0; k < 40 * N && B.getWinner() == null; k += 1) {
+                checkCounts(B);
+                for (Side player : new Side[] { RED, BLUE }) {
+                    int count = B.legalMoves(player, moves), i;
+                    i = 0;
+                    for (int n = 0; n < N * N; n += 1) {
+                        boolean legal = B.get(n).getSide() != player.opposite()
+                            && B.get(n).getSpots() <= B.neighbors(n);
+                        if (legal) {
+                            assertEquals("legal moves", n, moves[i]);
+                            i += 1;
+                        }
+                        assertEquals("isLegal", legal
+                                     && player == B.whoseMove(),
+                                     B.isLegal(player, n));
+                    }
+                    assertEquals("number of legal moves", i, count);
+                }
+                int count = B.legalMoves(B.whoseMove(), moves);
+                B.addSpot(B.whoseMove(), moves[gen.nextInt(count)]);
+                if (gen.nextInt(4) == 0) {
+                    B.undo();
+                }
+            }
+            checkCounts(B);
+            B.undo();
+            checkCounts(B);
+        }
+    }
+
+    @Test
+    public void testCopyFrom() {
+        Random gen = new Random(48);
+        BoardPool pool = new BoardPool();
+        int[] notified = { 0 };
+        Board work = new Board(3);
+        work.setNotifier((b) -> notified[0] += 1);
+        for (int N : new int[] { 6, 6, 9 }) {
+            Board B = randomBoard(N, gen);
+            notified[0] = 0;
+            work.copyFrom(B.readonlyBoard());
+            assertEquals("notifier calls", 0, notified[0]);
+            assertArrayEquals("contents", codes(B), codes(work));
+            assertEquals("key", B.key(), work.key());
+            checkCounts(work);
+            int[] moves = new int[N * N];
+            int count = work.legalMoves(work.whoseMove(), moves);
+            work.addSpot(work.whoseMove(), moves[0]);
+            work.undo();
+            assertArrayEquals("after undo", codes(B), codes(work));
+            Board copy = pool.take(B);
+            assertArrayEquals("pooled copy", codes(B), codes(copy));
+            assertEquals("pooled legal moves", count,
+                         copy.legalMoves(copy.whoseMove(), moves));
+            pool.release(copy);
+        }
+        assertEquals("boards pooled", 1, pool.available());
+    }
+
+    @Test
+    public void testNetwork() throws IOException {
+        Random gen = new Random(50);
+        File file = File.createTempFile("jump61", ".net");
+        file.deleteOnExit();
+        for (int N : new int[] { 3, 6 }) {
+            TupleNetwork network = new TupleNetwork(N);
+            float[] weights = network.array();
+            for (int w = 0; w < weights.length; w += 1) {
+                weights[w] = (float) gen.nextGaussian();
+            }
+            Board B = new Board(N), plain = new Board(N);
+            B.setNetwork(network);
+            assertSame("network kept", network, B.network());
+            int[] moves = new int[N * N];
+            while (B.getWinner() == null) {
+                Side player = B.whoseMove();
+                int count = B.legalMoves(player, moves);
+                B.addSpot(player, moves[gen.nextInt(count)]);
+                if (gen.nextInt(4) == 0) {
+                    B.undo();
+                }
+                plain.copyFrom(B);
+                assertEquals("incremental value", network.value(plain),
+                             network.value(B), 1e-3);
+            }
+            Board work = new Board(N);
+            work.setNetwork(network);
+            work.copyFrom(plain);
+            assertEquals("copied value", network.value(plain),
+                         network.value(work), 1e-3);
+            network.write(file.getPath());
+            TupleNetwork mapped = TupleNetwork.read(file.getPath());
+            assertEquals("read value", network.value(plain),
+                         mapped.value(plain), 1e-3);
+            assertEquals("read swing", network.quietSwing(),
+                         mapped.quietSwing());
+        }
+        Board other = new Board(4);
+        other.setNetwork(new TupleNetwork(5));
+        assertNull("network for another size", other.network());
+    }
+
+    /** Check B's counts of spots and of squares of each side against its
+     *  contents. */
+    private void checkCounts(Board B) {
+        int spots = 0, red = 0, blue = 0;
+        for (int n = 0; n < B.size() * B.size(); n += 1) {
+            spots += B.get(n).getSpots();
+            red += B.get(n).getSide() == RED ? 1 : 0;
+            blue += B.get(n).getSide() == BLUE ? 1 : 0;
+        }
+        assertEquals("spots", spots, B.numPieces());
+        assertEquals("red squares", red, B.numOfSide(RED));
+        assertEquals("blue squares", blue, B.numOfSide(BLUE));
+    }
+
+    /** Return some legal move on B. */
+    private int findLegal(Board b) {
+        for (int n = 0; ; n += 1) {
+            if (b.isLegal(b.whoseMove(), n)) {
+                return n;
+            }
+        }
+    }
+
     /** Checks that B conforms to the description given by CONTENTS.
      *  CONTENTS should be a sequence of groups of 4 items:
      *  r, c, n, s, where r and c are row and column number of a square of B,
@@ -15,17 +15,22 @@ import ucb.gui2.Pad;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 
 import java.util.concurrent.ArrayBlockingQueue;
 
+import javax.swing.Timer;
+
 import static jump61.Side.*;
 
 /** A GUI component that displays a Jump61 board, and converts mouse clicks
  *  on that board to commands that are sent to the current Game.
  *  @author
  */
-class BoardWidget extends Pad {
+class BoardWidget extends Pad implements BoardListener {
 
     /** Length of the side of one square in pixels. */
     private static final int SQUARE_SIZE = 50;
@@ -44,7 +49,15 @@ class BoardWidget extends Pad {
         SEPARATOR_COLOR = Color.BLACK,
         SPOT_COLOR = Color.BLACK,
         RED_TINT = new Color(255, 200, 200),
-        BLUE_TINT = new Color(200, 200, 255);
+        BLUE_TINT = new Color(200, 200, 255),
+        EXPLOSION_COLOR = Color.ORANGE;
+
+    /** Width of the outline of a toppling square in an animation. */
+    private static final int EXPLOSION_WIDTH = 3;
+    /** Minimum interval between frames of an animation in msec. */
+    static final int FRAME_MILLIS = 60;
+    /** Maximum number of frames in the animation of one cascade. */
+    static final int MAX_FRAMES = 40;
 
     /** A new BoardWidget that monitors and displays a game Board, and
      *  converts mouse clicks to commands to COMMANDQUEUE. */
@@ -59,18 +72,169 @@ class BoardWidget extends Pad {
      *  responds to events, and the display thread).  We don't want the
      *  saved copy of our Board to change while it is being displayed. */
 
-    /** Update my display to show BOARD.  Here, we save a copy of
+    /** Update my display to show BOARD.  Here, we save the contents of
      *  BOARD (so that we can deal with changes to it only when we are ready
-     *  for them), and recompute the size of the displayed board. */
-    synchronized void update(Board board) {
-        if (board.equals(_board)) {
+     *  for them) and request repainting of just the squares that differ
+     *  from those last saved.  Returns true iff the size of the board has
+     *  changed, so that my container must lay me out again. */
+    synchronized boolean update(Board board) {
+        finishAnimation();
+        int N = board.size();
+        boolean resized = _contents == null || N != _size;
+        if (resized) {
+            _size = N;
+            _contents = new byte[N * N];
+            _latest = new byte[N * N];
+            _exploding = new boolean[N * N];
+            _side = N * SQUARE_SEP + SEPARATOR_SIZE;
+            _resized = true;
+            invalidate();
+        }
+        for (int n = 0; n < N * N; n += 1) {
+            Square sq = board.get(n);
+            _latest[n] = (byte) (16 * sq.getSide().ordinal()
+                                 + Math.min(sq.getSpots(), 15));
+            if (resized) {
+                _contents[n] = _latest[n];
+            } else {
+                setContents(n, _latest[n]);
+            }
+        }
+        if (resized) {
+            repaint();
+        }
+        return resized;
+    }
+
+    /** Return true iff the size of the board I display has changed since
+     *  the last call, so that my container must lay me out again. */
+    synchronized boolean takeResized() {
+        boolean resized = _resized;
+        _resized = false;
+        return resized;
+    }
+
+    /** Animate moves recorded in EVENTS (see changed), if not null. */
+    synchronized void setCascadeEvents(CascadeEvents events) {
+        _events = events;
+    }
+
+    @Override
+    public void reset(Board board) {
+        update(board);
+    }
+
+    /** Repaints just the changed squares, unless the change is a move whose
+     *  cascade has been recorded in my CascadeEvents (see
+     *  setCascadeEvents), in which case I show the cascade one round of
+     *  toppling per frame (or several, if there are more than MAX_FRAMES
+     *  rounds), with a frame every FRAME_MILLIS milliseconds, outlining
+     *  the squares toppling in each frame.  The frames are shown on the
+     *  event thread; any further change cuts them short. */
+    @Override
+    public synchronized void changed(Board board, int move, Side player,
+                                     int count, int[] squares,
+                                     byte[] before, byte[] after) {
+        finishAnimation();
+        for (int k = 0; k < count; k += 1) {
+            _latest[squares[k]] = after[k];
+        }
+        if (_events == null || move < 0 || _events.move() != move
+            || _events.size() == 0) {
+            for (int k = 0; k < count; k += 1) {
+                setContents(squares[k], after[k]);
+            }
             return;
         }
-        if (_board != null && _board.size() != board.size()) {
-            invalidate();
+        _animation.copy(_events);
+        _nextStep = _frameStart = 0;
+        _nextRound = 1;
+        _roundsPerFrame =
+            (_animation.rounds() + MAX_FRAMES - 1) / MAX_FRAMES;
+        _animating = true;
+        addSpot(move, player.ordinal());
+        if (_timer == null) {
+            _timer = new Timer(FRAME_MILLIS, (e) -> showFrame());
+        }
+        _timer.restart();
+    }
+
+    /** Show the next frame of the current animation, if any. */
+    private synchronized void showFrame() {
+        if (!_animating) {
+            return;
+        } else if (_nextStep == _animation.size()) {
+            finishAnimation();
+            return;
+        }
+        clearExploding();
+        _frameStart = _nextStep;
+        int last = _nextRound + _roundsPerFrame - 1;
+        int player = _animation.player().ordinal();
+        while (_nextStep < _animation.size()
+               && _animation.round(_nextStep) <= last) {
+            int source = _animation.source(_nextStep);
+            setContents(source, _contents[source] - 1);
+            if (!_exploding[source]) {
+                _exploding[source] = true;
+                repaintSquare(source);
+            }
+            addSpot(_animation.target(_nextStep), player);
+            _nextStep += 1;
         }
-        _board = new Board(board);
-        _side = _board.size() * SQUARE_SEP + SEPARATOR_SIZE;
+        _nextRound = last + 1;
+    }
+
+    /** End any animation at once, showing its final position. */
+    private void finishAnimation() {
+        if (_timer != null) {
+            _timer.stop();
+        }
+        if (!_animating) {
+            return;
+        }
+        _animating = false;
+        clearExploding();
+        setContents(_animation.move(), _latest[_animation.move()]);
+        for (int k = 0; k < _animation.size(); k += 1) {
+            int target = _animation.target(k);
+            setContents(target, _latest[target]);
+            int source = _animation.source(k);
+            setContents(source, _latest[source]);
+        }
+    }
+
+    /** Give square #N one more spot, belonging to the side with ordinal
+     *  SIDE, in the displayed position. */
+    private void addSpot(int n, int side) {
+        setContents(n, 16 * side + Math.min((_contents[n] & 15) + 1, 15));
+    }
+
+    /** Set the code for square #N to CODE, repainting it if that changes
+     *  it. */
+    private void setContents(int n, int code) {
+        if (_contents[n] != (byte) code) {
+            _contents[n] = (byte) code;
+            repaintSquare(n);
+        }
+    }
+
+    /** Stop outlining the squares toppled in the last frame. */
+    private void clearExploding() {
+        for (int k = _frameStart; k < _nextStep; k += 1) {
+            int source = _animation.source(k);
+            if (_exploding[source]) {
+                _exploding[source] = false;
+                repaintSquare(source);
+            }
+        }
+    }
+
+    /** Request repainting of square #N. */
+    private void repaintSquare(int n) {
+        repaint(SEPARATOR_SIZE + (n % _size) * SQUARE_SEP,
+                SEPARATOR_SIZE + (n / _size) * SQUARE_SEP,
+                SQUARE_SIZE, SQUARE_SIZE);
     }
 
     @Override
@@ -88,18 +252,84 @@ class BoardWidget extends Pad {
         return new Dimension(_side, _side);
     }
 
+    /** Paints only the squares that meet the clip region of G, copying
+     *  each from a tile image rendered once per combination of side and
+     *  number of spots. */
     @Override
     public synchronized void paintComponent(Graphics2D g) {
-        if (_board == null) {
+        if (_contents == null) {
             return;
         }
-        // FIXME
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, _side, _side);
+        }
+        g.setColor(SEPARATOR_COLOR);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        int N = _size;
+        int c0 = Math.max(0, (clip.x - SEPARATOR_SIZE) / SQUARE_SEP),
+            c1 = Math.min(N - 1, (clip.x + clip.width - SEPARATOR_SIZE)
+                          / SQUARE_SEP),
+            r0 = Math.max(0, (clip.y - SEPARATOR_SIZE) / SQUARE_SEP),
+            r1 = Math.min(N - 1, (clip.y + clip.height - SEPARATOR_SIZE)
+                          / SQUARE_SEP);
+        for (int r = r0; r <= r1; r += 1) {
+            for (int c = c0; c <= c1; c += 1) {
+                int x = SEPARATOR_SIZE + c * SQUARE_SEP,
+                    y = SEPARATOR_SIZE + r * SQUARE_SEP;
+                g.drawImage(tile(_contents[r * N + c]), x, y, null);
+                if (_animating && _exploding[r * N + c]) {
+                    g.setColor(EXPLOSION_COLOR);
+                    for (int k = 0; k < EXPLOSION_WIDTH; k += 1) {
+                        g.drawRect(x + k, y + k, SQUARE_SIZE - 1 - 2 * k,
+                                   SQUARE_SIZE - 1 - 2 * k);
+                    }
+                }
+            }
+        }
     }
 
-    /** Color and display the spots on the square at row R and column C
-     *  on G.  (Used by paintComponent). */
-    private void displaySpots(Graphics2D g, int r, int c) {
-        // FIXME
+    /** Return the image of a square whose side and spots are encoded in
+     *  CODE as 16 * (ordinal of side) + spots, rendering it the first
+     *  time it is needed. */
+    private BufferedImage tile(int code) {
+        if (_tiles[code] == null) {
+            BufferedImage image =
+                new BufferedImage(SQUARE_SIZE, SQUARE_SIZE,
+                                  BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            Side side = Side.values()[code / 16];
+            g.setColor(side == RED ? RED_TINT
+                       : side == BLUE ? BLUE_TINT : NEUTRAL);
+            g.fillRect(0, 0, SQUARE_SIZE, SQUARE_SIZE);
+            if (side != WHITE) {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                   RenderingHints.VALUE_ANTIALIAS_ON);
+                displaySpots(g, code % 16);
+            }
+            g.dispose();
+            _tiles[code] = image;
+        }
+        return _tiles[code];
+    }
+
+    /** Display SPOTS spots on G, whose origin is the upper-left corner of
+     *  a square.  Squares with more than four spots (seen only in the
+     *  middle of a cascade) show five.  (Used by tile). */
+    private void displaySpots(Graphics2D g, int spots) {
+        int lo = SPOT_MARGIN, mid = SQUARE_SIZE / 2,
+            hi = SQUARE_SIZE - SPOT_MARGIN;
+        if (spots % 2 == 1 || spots > 4) {
+            spot(g, mid, mid);
+        }
+        if (spots >= 2) {
+            spot(g, lo, lo);
+            spot(g, hi, hi);
+        }
+        if (spots >= 4) {
+            spot(g, lo, hi);
+            spot(g, hi, lo);
+        }
     }
 
     /** Draw one spot centered at position (X, Y) on G. */
@@ -123,8 +353,38 @@ class BoardWidget extends Pad {
         _commandQueue.offer(String.format("%d %d", r, c));
     }
 
-    /** The Board I am displaying. */
-    private Board _board;
+    /** The squares I am displaying, each encoded as for tile, in
+     *  row-major order, or null before the first update. */
+    private byte[] _contents;
+    /** Number of squares on a side of the board I am displaying. */
+    private int _size;
+    /** The move and cascade being animated. */
+    private final CascadeEvents _animation = new CascadeEvents();
+    /** True iff an animation is in progress. */
+    private boolean _animating;
+    /** The position of the board, encoded as for _contents, which differs
+     *  from _contents only during an animation. */
+    private byte[] _latest;
+    /** True iff my size has changed since the last takeResized. */
+    private boolean _resized;
+    /** Record of the latest move and its cascade, or null. */
+    private CascadeEvents _events;
+    /** _exploding[n] iff square #n is outlined as toppling. */
+    private boolean[] _exploding;
+    /** Index in _animation of the first step of the current frame. */
+    private int _frameStart;
+    /** Index in _animation of the next step to show. */
+    private int _nextStep;
+    /** First round shown in the next frame. */
+    private int _nextRound;
+    /** Rounds shown per frame. */
+    private int _roundsPerFrame;
+    /** Source of animation frames on the event thread, created on
+     *  demand. */
+    private Timer _timer;
+    /** Images of squares, indexed by their codes (see tile). */
+    private final BufferedImage[] _tiles =
+        new BufferedImage[16 * Side.values().length];
     /** Dimension in pixels of one side of the board. */
     private int _side;
     /** Destination for commands derived from mouse clicks. */
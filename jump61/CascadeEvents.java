@@ -0,0 +1,102 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A reusable record of one move and the chain reaction it caused, as a
+ *  sequence of toppling steps.  Each step moves one spot from an
+ *  over-full source square to a neighboring target square, which then
+ *  belongs to the mover; all steps of round 1 (the toppling of the square
+ *  moved to, if it became over-full) come before those of round 2, and so
+ *  on.  A Board given one of these by setCascadeEvents fills it in on
+ *  each move, reusing its storage, so that once it has grown to the size
+ *  of the largest cascade, recording allocates nothing.  Starting from
+ *  the position before the move, adding a spot to move() and then
+ *  applying the steps in order reproduces the position after it.
+ *  @author Tianyi Xu
+ */
+class CascadeEvents {
+
+    /** Initial capacity in steps. */
+    private static final int INITIAL_STEPS = 64;
+
+    /** Return the square number moved to, or -1 if none has been
+     *  recorded. */
+    int move() {
+        return _move;
+    }
+
+    /** Return the side that moved, or null if no move has been
+     *  recorded. */
+    Side player() {
+        return _player;
+    }
+
+    /** Return the number of steps recorded. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of rounds of toppling recorded. */
+    int rounds() {
+        return _size == 0 ? 0 : round(_size - 1);
+    }
+
+    /** Return the round (numbered from 1) of step K. */
+    int round(int k) {
+        return _data[3 * k];
+    }
+
+    /** Return the square from which step K takes a spot. */
+    int source(int k) {
+        return _data[3 * k + 1];
+    }
+
+    /** Return the square to which step K gives a spot. */
+    int target(int k) {
+        return _data[3 * k + 2];
+    }
+
+    /** Forget all steps and start recording a move by PLAYER to square
+     *  #SQUARE. */
+    void begin(int square, Side player) {
+        _move = square;
+        _player = player;
+        _size = 0;
+    }
+
+    /** Forget everything recorded. */
+    void clear() {
+        begin(-1, null);
+    }
+
+    /** Record a step in ROUND from square #SOURCE to square #TARGET. */
+    void add(int round, int source, int target) {
+        if (3 * _size == _data.length) {
+            _data = Arrays.copyOf(_data, 2 * _data.length);
+        }
+        _data[3 * _size] = round;
+        _data[3 * _size + 1] = source;
+        _data[3 * _size + 2] = target;
+        _size += 1;
+    }
+
+    /** Make me a copy of OTHER. */
+    void copy(CascadeEvents other) {
+        if (_data.length < 3 * other._size) {
+            _data = new int[other._data.length];
+        }
+        System.arraycopy(other._data, 0, _data, 0, 3 * other._size);
+        _size = other._size;
+        _move = other._move;
+        _player = other._player;
+    }
+
+    /** Round, source, and target of each step, three entries per step. */
+    private int[] _data = new int[3 * INITIAL_STEPS];
+    /** Number of steps. */
+    private int _size;
+    /** Square moved to, or -1. */
+    private int _move = -1;
+    /** Side that moved, or null. */
+    private Side _player;
+}
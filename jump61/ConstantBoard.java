@@ -1,5 +1,7 @@
 package jump61;
 
+import java.util.concurrent.ForkJoinPool;
+
 /** A ConstantBoard is a view of an existing Board that does not allow
  *  modifications. Changes made to the underlying Board are reflected in
  *  ConstantBoards formed from it.
@@ -47,11 +49,41 @@ class ConstantBoard extends Board {
         return _board.isLegal(player);
     }
 
+    @Override
+    int legalMoves(Side player, int[] moves) {
+        return _board.legalMoves(player, moves);
+    }
+
     @Override
     int numOfSide(Side color) {
         return _board.numOfSide(color);
     }
 
+    @Override
+    int numCritical(Side color) {
+        return _board.numCritical(color);
+    }
+
+    @Override
+    long key() {
+        return _board.key();
+    }
+
+    @Override
+    long canonicalKey() {
+        return _board.canonicalKey();
+    }
+
+    @Override
+    int canonicalSymmetry() {
+        return _board.canonicalSymmetry();
+    }
+
+    @Override
+    int symmetries() {
+        return _board.symmetries();
+    }
+
     @Override
     public boolean equals(Object obj) {
         return _board.equals(obj);
@@ -62,6 +94,36 @@ class ConstantBoard extends Board {
         return _board.hashCode();
     }
 
+    @Override
+    int lastCascade() {
+        return _board.lastCascade();
+    }
+
+    @Override
+    Board contents() {
+        return _board.contents();
+    }
+
+    @Override
+    TupleNetwork network() {
+        return _board.network();
+    }
+
+    @Override
+    double networkSum() {
+        return _board.networkSum();
+    }
+
+    @Override
+    void addListener(BoardListener listener) {
+        _board.addListener(listener);
+    }
+
+    @Override
+    void removeListener(BoardListener listener) {
+        _board.removeListener(listener);
+    }
+
     /* Mutators modified to do nothing. */
 
     @Override
@@ -72,6 +134,18 @@ class ConstantBoard extends Board {
     void copy(Board board) {
     }
 
+    @Override
+    void copyFrom(Board board) {
+    }
+
+    @Override
+    void setNetwork(TupleNetwork network) {
+    }
+
+    @Override
+    void setCells(int N, byte[] cells) {
+    }
+
     @Override
     void addSpot(Side player, int r, int c) {
     }
@@ -88,6 +162,14 @@ class ConstantBoard extends Board {
     void undo() {
     }
 
+    @Override
+    void setCascadePool(ForkJoinPool pool) {
+    }
+
+    @Override
+    void setCascadeEvents(CascadeEvents events) {
+    }
+
     /** Board to which all operations are delegated. */
     private Board _board;
 
@@ -20,4 +20,7 @@ class Defaults {
     /** Maximum number of squares on the side of a game board. */
     static final int MAX_BOARD_SIZE = 10;
 
+    /** Default number of seconds between exports of Metrics. */
+    static final int METRICS_PERIOD = 15;
+
 }
@@ -37,6 +37,7 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         // FIXME: More needed
 
         _boardWidget = new BoardWidget(_commandQueue);
+        _boardWidget.setCascadeEvents(_events);
         add(_boardWidget, new LayoutSpec("y", 1, "width", 2));
         display(true);
     }
@@ -56,9 +57,19 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
     @Override
     public void update(Board board) {
         // FIXME
-        _boardWidget.update(board);
-        pack();
-        _boardWidget.repaint();
+        if (_boardWidget.takeResized()) {
+            pack();
+        }
+    }
+
+    @Override
+    public BoardListener boardListener() {
+        return _boardWidget;
+    }
+
+    @Override
+    public CascadeEvents cascadeEvents() {
+        return _events;
     }
 
     @Override
@@ -90,11 +101,28 @@ class Display extends TopLevel implements View, CommandSource, Reporter {
         showMessage(String.format(format, args), "Error", "error");
     }
 
+    @Override
+    public void log(String format, Object... args) {
+        System.out.printf(format, args);
+        System.out.println();
+    }
+
+    @Override
+    public void analysis(String format, Object... args) {
+        log(format, args);
+    }
+
+    @Override
+    public void flush() {
+    }
+
     /** Time interval in msec to wait after a board update. */
     static final long BOARD_UPDATE_INTERVAL = 50;
 
     /** The widget that displays the actual playing board. */
     private BoardWidget _boardWidget;
+    /** Moves and cascades recorded by the game's board. */
+    private final CascadeEvents _events = new CascadeEvents();
     /** Queue for commands going to the controlling Game. */
     private final ArrayBlockingQueue<String> _commandQueue =
         new ArrayBlockingQueue<>(5);
@@ -0,0 +1,496 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jump61.Side.*;
+import static jump61.GameException.error;
+import static jump61.Utils.*;
+
+/** A line-oriented protocol for driving Jump61 from other programs, used
+ *  in place of the usual command interpreter when Main is given --engine.
+ *  There are no prompts or echoes: each input line is one command, and
+ *  the only output consists of the replies below, each flushed as soon as
+ *  it is complete.  Rows and columns are numbered from 1, as usual.
+ *
+ *    isready            Reply "readyok" (even while searching).
+ *    newgame [N]        Clear the board, making it N x N if N is given.
+ *    position N [squares S1 ... SM] [moves R1 C1 R2 C2 ...]
+ *                       Set up an N x N board whose M = N*N squares (in
+ *                       row-major order) are given as in a dump (e.g.,
+ *                       1-, 2r, 3b), or are initial if there is no
+ *                       "squares" part, and then make the given moves.
+ *    position code C [moves R1 C1 R2 C2 ...]
+ *                       Set up the board whose text form (see
+ *                       PositionCodec) is C, and then make the given
+ *                       moves.
+ *    seed N             Seed the random number generator used to break
+ *                       ties between equally good moves.
+ *    setoption NAME V   Set a search parameter for subsequent searches:
+ *                         selective on|off  late move reductions and
+ *                                           futility pruning
+ *                         lmrdepth D        reduce only at depth >= D
+ *                         lmrmoves K        never reduce the first K moves
+ *                         lmrreduction R    reduce late moves by R plies
+ *                         futilitydepth D   prune within D plies of the
+ *                                           horizon (0 for none)
+ *                         futilitymargin M  value margin per ply
+ *                         quiescence K      quiescence node budget
+ *                         table B           transposition table of 2**B
+ *                                           entries (0 for none)
+ *    go [depth D] [nodes K] [movetime MS] [infinite] [ponder]
+ *                       Search for a move for the side to move.  Replies
+ *                       "info depth D score V nodes K time MS nps X pv R C
+ *                       R2 C2 ..." after each depth, giving the expected
+ *                       line of play, and finally "bestmove R C" (or
+ *                       "bestmove none" if the game is over).  With no
+ *                       limits, searches to the same depth as the AI
+ *                       player.  With "infinite" or "ponder", searches
+ *                       until told otherwise.
+ *    stop               End the current search now, replying "bestmove".
+ *    ponderhit          The move pondered on was played: the limits given
+ *                       to "go ponder" start to apply from now.
+ *    quit               Exit.
+ *
+ *  Erroneous commands get the reply "error MESSAGE".
+ *  @author Tianyi Xu
+ */
+class EngineProtocol {
+
+    /** Search depth used when "go" has no limits. */
+    static final int DEFAULT_DEPTH = 4;
+
+    /** Maximum search depth for a limited or infinite search. */
+    static final int MAX_DEPTH = 64;
+
+    /** Maximum log2 of the size of a transposition table. */
+    static final int MAX_TABLE_BITS = 26;
+
+    /** An engine reading commands from INP and replying on OUT. */
+    EngineProtocol(Reader inp, OutputStream out) {
+        _inp = new BufferedReader(inp);
+        _out =
+            new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+        _board = new Board(Defaults.BOARD_SIZE);
+        _seed = (long) (Math.random() * Long.MAX_VALUE);
+    }
+
+    /** Process commands until "quit" or the end of input.  Returns an
+     *  exit code: 0 is normal. */
+    int run() {
+        try {
+            for (String line = _inp.readLine(); line != null;
+                 line = _inp.readLine()) {
+                String[] parts = line.trim().toLowerCase().split("\\s+");
+                if (parts[0].equals("quit")) {
+                    break;
+                }
+                try {
+                    execute(parts);
+                } catch (NumberFormatException excp) {
+                    send("error bad number in: %s", line.trim());
+                } catch (ArrayIndexOutOfBoundsException excp) {
+                    send("error argument(s) missing: %s", line.trim());
+                } catch (GameException excp) {
+                    send("error %s", excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            return 1;
+        } finally {
+            stopSearch();
+        }
+        return 0;
+    }
+
+    /** Execute the command whose words are PARTS. */
+    private void execute(String[] parts) {
+        switch (parts[0]) {
+        case "":
+            break;
+        case "isready":
+            send("readyok");
+            break;
+        case "newgame":
+            stopSearch();
+            _board.clear(parts.length > 1 ? checkSize(toInt(parts[1]))
+                         : _board.size());
+            break;
+        case "position":
+            stopSearch();
+            setPosition(parts);
+            break;
+        case "seed":
+            stopSearch();
+            _seed = toLong(parts[1]);
+            _ais[RED.ordinal()] = _ais[BLUE.ordinal()] = null;
+            break;
+        case "setoption":
+            stopSearch();
+            setOption(parts[1], parts[2]);
+            break;
+        case "go":
+            stopSearch();
+            go(parts);
+            break;
+        case "stop":
+            stopSearch();
+            break;
+        case "ponderhit":
+            ponderhit();
+            break;
+        default:
+            throw error("unknown command: %s", parts[0]);
+        }
+    }
+
+    /** Set up the position described by the "position" command PARTS. */
+    private void setPosition(String[] parts) {
+        Board board;
+        int k = 2;
+        if (parts[1].equals("code")) {
+            board = new Board(checkSize(PositionCodec.size(parts[2])));
+            PositionCodec.fromText(parts[2], board);
+            k = 3;
+        } else {
+            board = new Board(checkSize(toInt(parts[1])));
+        }
+        int N = board.size();
+        if (k == 2 && k < parts.length && parts[k].equals("squares")) {
+            for (int n = 0; n < N * N; n += 1) {
+                setSquare(board, n, parts[k + 1 + n]);
+            }
+            k += 1 + N * N;
+        }
+        if (k < parts.length) {
+            if (!parts[k].equals("moves") || (parts.length - k) % 2 != 1) {
+                throw error("malformed position");
+            }
+            for (k += 1; k < parts.length; k += 2) {
+                int r = toInt(parts[k]), c = toInt(parts[k + 1]);
+                if (!board.isLegal(board.whoseMove(), r, c)) {
+                    throw error("illegal move: %d %d", r, c);
+                }
+                board.addSpot(board.whoseMove(), r, c);
+            }
+        }
+        _board.copy(board);
+    }
+
+    /** Set square #N of BOARD as described by the dump-format TOKEN. */
+    private void setSquare(Board board, int n, String token) {
+        if (token.length() < 2) {
+            throw error("bad square: %s", token);
+        }
+        int spots = toInt(token.substring(0, token.length() - 1));
+        Side side;
+        switch (token.charAt(token.length() - 1)) {
+        case 'r':
+            side = RED;
+            break;
+        case 'b':
+            side = BLUE;
+            break;
+        case '-':
+            side = WHITE;
+            break;
+        default:
+            throw error("bad square: %s", token);
+        }
+        if (spots < 1 || spots > board.neighbors(n)
+            || (side == WHITE && spots != 1)) {
+            throw error("bad square: %s", token);
+        }
+        board.set(board.row(n), board.col(n), spots, side);
+    }
+
+    /** Record VALUE as the setting of search option NAME, and apply it to
+     *  the existing AIs. */
+    private void setOption(String name, String value) {
+        checkOption(name, value);
+        _options.put(name, value);
+        for (AI ai : _ais) {
+            if (ai != null) {
+                configure(ai, name, value);
+            }
+        }
+    }
+
+    /** Check that VALUE is a valid setting of search option NAME. */
+    private static void checkOption(String name, String value) {
+        switch (name) {
+        case "selective":
+            if (!value.equals("on") && !value.equals("off")) {
+                throw error("selective must be on or off");
+            }
+            break;
+        case "lmrdepth": case "lmrmoves": case "lmrreduction":
+        case "futilitydepth": case "futilitymargin":
+            toInt(value);
+            break;
+        case "quiescence":
+            toLong(value);
+            break;
+        case "table":
+            int bits = toInt(value);
+            if (bits < 0 || bits > MAX_TABLE_BITS) {
+                throw error("table size must be between 0 and %d",
+                            MAX_TABLE_BITS);
+            }
+            break;
+        default:
+            throw error("unknown option: %s", name);
+        }
+    }
+
+    /** Apply the option NAME with value VALUE, which checkOption has
+     *  accepted, to AI. */
+    private void configure(AI ai, String name, String value) {
+        switch (name) {
+        case "selective":
+            ai.setSelective(value.equals("on"));
+            break;
+        case "lmrdepth":
+            _lmr[0] = toInt(value);
+            ai.setReductions(_lmr[0], _lmr[1], _lmr[2]);
+            break;
+        case "lmrmoves":
+            _lmr[1] = toInt(value);
+            ai.setReductions(_lmr[0], _lmr[1], _lmr[2]);
+            break;
+        case "lmrreduction":
+            _lmr[2] = toInt(value);
+            ai.setReductions(_lmr[0], _lmr[1], _lmr[2]);
+            break;
+        case "futilitydepth":
+            _futility[0] = toInt(value);
+            ai.setFutility(_futility[0], _futility[1]);
+            break;
+        case "futilitymargin":
+            _futility[1] = toInt(value);
+            ai.setFutility(_futility[0], _futility[1]);
+            break;
+        case "quiescence":
+            ai.setQuiescenceLimit(toLong(value));
+            break;
+        case "table":
+            ai.setTableSize(toInt(value));
+            break;
+        default:
+            throw new IllegalArgumentException("unknown option: " + name);
+        }
+    }
+
+    /** Return N, checking that it is a valid board size. */
+    private int checkSize(int N) {
+        if (N < 2 || N > Defaults.MAX_BOARD_SIZE) {
+            throw error("size must be between 2 and %d",
+                        Defaults.MAX_BOARD_SIZE);
+        }
+        return N;
+    }
+
+    /** Start the search requested by the "go" command PARTS. */
+    private void go(String[] parts) {
+        int depth = -1;
+        long nodes = Long.MAX_VALUE, moveTime = -1;
+        boolean infinite = false, ponder = false;
+        for (int k = 1; k < parts.length; k += 1) {
+            switch (parts[k]) {
+            case "depth":
+                depth = toInt(parts[k + 1]);
+                k += 1;
+                break;
+            case "nodes":
+                nodes = toLong(parts[k + 1]);
+                k += 1;
+                break;
+            case "movetime":
+                moveTime = toLong(parts[k + 1]);
+                k += 1;
+                break;
+            case "infinite":
+                infinite = true;
+                break;
+            case "ponder":
+                ponder = true;
+                break;
+            default:
+                throw error("unknown go option: %s", parts[k]);
+            }
+        }
+        if (depth < 0) {
+            depth = infinite || ponder || moveTime >= 0
+                || nodes != Long.MAX_VALUE ? MAX_DEPTH : DEFAULT_DEPTH;
+        }
+        if (_board.getWinner() != null) {
+            send("bestmove none");
+            return;
+        }
+        _searchDepth = depth;
+        _nodeLimit = nodes;
+        _moveTime = moveTime;
+        _pondering = ponder;
+        _infinite = infinite;
+        _searcher = ai(_board.whoseMove());
+        if (ponder) {
+            _searcher.limit(Long.MAX_VALUE, Long.MAX_VALUE);
+        } else {
+            _searcher.limit(nodes, deadline(moveTime));
+        }
+        Board position = _positions.take(_board);
+        _search = new Thread(() -> search(position), "jump61-engine");
+        _search.start();
+    }
+
+    /** Body of the search thread: search POSITION and report the result
+     *  once the search is over and we are neither pondering nor searching
+     *  indefinitely. */
+    private void search(Board position) {
+        AI ai = _searcher;
+        int move =
+            ai.searchPosition(position, _searchDepth,
+                              (depth, value, best, nodes, elapsed)
+                              -> info(position, depth, value, nodes,
+                                      elapsed, ai.principalVariation()));
+        if (move == -1) {
+            send("bestmove none");
+        } else {
+            synchronized (this) {
+                while ((_pondering || _infinite) && !_stopping) {
+                    try {
+                        wait();
+                    } catch (InterruptedException excp) {
+                        break;
+                    }
+                }
+            }
+            send("bestmove %s", position.moveString(move));
+        }
+        _positions.release(position);
+    }
+
+    /** Report the completion of one depth of search on POSITION, as for
+     *  AI.Progress.depthDone(DEPTH, VALUE, MOVE, NODES, ELAPSED), where PV
+     *  is the principal variation found. */
+    private void info(Board position, int depth, int value, long nodes,
+                      long elapsed, int[] pv) {
+        long millis = elapsed / 1_000_000;
+        StringBuilder line = new StringBuilder();
+        for (int n : pv) {
+            line.append(' ').append(position.moveString(n));
+        }
+        send("info depth %d score %d nodes %d time %d nps %d pv%s",
+             depth, value, nodes, millis,
+             nodes * 1_000_000_000L / Math.max(1, elapsed), line);
+    }
+
+    /** Respond to "ponderhit": begin applying the limits of the current
+     *  search from now on. */
+    private void ponderhit() {
+        if (_search == null || !_pondering) {
+            return;
+        }
+        _searcher.limit(_nodeLimit, deadline(_moveTime));
+        synchronized (this) {
+            _pondering = false;
+            notifyAll();
+        }
+    }
+
+    /** End the current search, if any, waiting for its "bestmove". */
+    private void stopSearch() {
+        if (_search == null) {
+            return;
+        }
+        synchronized (this) {
+            _stopping = true;
+            notifyAll();
+        }
+        _searcher.stop();
+        try {
+            _search.join();
+        } catch (InterruptedException excp) {
+            throw new Error("unexpected interrupt");
+        }
+        _search = null;
+        _stopping = false;
+    }
+
+    /** Return the System.nanoTime() deadline for a search of MOVETIME
+     *  milliseconds starting now, or Long.MAX_VALUE if MOVETIME < 0. */
+    private long deadline(long moveTime) {
+        if (moveTime < 0) {
+            return Long.MAX_VALUE;
+        }
+        return System.nanoTime() + moveTime * 1_000_000;
+    }
+
+    /** Return the AI used to search for SIDE. */
+    private AI ai(Side side) {
+        if (_ais[side.ordinal()] == null) {
+            AI ai = new AI(side, _seed + side.ordinal());
+            for (Map.Entry<String, String> option : _options.entrySet()) {
+                configure(ai, option.getKey(), option.getValue());
+            }
+            _ais[side.ordinal()] = ai;
+        }
+        return _ais[side.ordinal()];
+    }
+
+    /** Send the line formed from FORMAT and ARGS (as for String.format),
+     *  and flush it. */
+    private void send(String format, Object... args) {
+        synchronized (_out) {
+            _out.printf(format, args);
+            _out.print('\n');
+            _out.flush();
+        }
+    }
+
+    /** Source of commands. */
+    private final BufferedReader _inp;
+    /** Destination of replies. */
+    private final PrintWriter _out;
+    /** The current position. */
+    private final Board _board;
+    /** Seed for the AIs' random number generators. */
+    private long _seed;
+    /** Searchers for each side, created on demand. */
+    private final AI[] _ais = new AI[Side.values().length];
+    /** Options set by "setoption", in the order set. */
+    private final Map<String, String> _options = new LinkedHashMap<>();
+    /** Current late move reduction settings: minimum depth, full-depth
+     *  moves, and reduction. */
+    private final int[] _lmr = {
+        AI.LMR_DEPTH, AI.LMR_MOVES, AI.LMR_REDUCTION
+    };
+    /** Current futility settings: depth and margin (-1 for the AI's
+     *  default margin). */
+    private final int[] _futility = { AI.FUTILITY_DEPTH, -1 };
+    /** Copies of _board handed to search threads. */
+    private final BoardPool _positions = new BoardPool();
+    /** The thread running the current search, or null. */
+    private Thread _search;
+    /** The AI performing the current search. */
+    private AI _searcher;
+    /** Limits of the current search, as given to "go". */
+    private int _searchDepth;
+    /** Node limit of the current search, as given to "go". */
+    private long _nodeLimit;
+    /** Time limit in milliseconds of the current search, or -1. */
+    private long _moveTime;
+    /** True while pondering, before "ponderhit". */
+    private boolean _pondering;
+    /** True if the current search goes on until "stop". */
+    private boolean _infinite;
+    /** True while stopSearch waits for the current search. */
+    private boolean _stopping;
+}
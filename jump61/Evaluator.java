@@ -0,0 +1,175 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static jump61.Side.*;
+import static jump61.GameException.error;
+
+/** A linear evaluation of Jump61 positions: a weighted sum of the board
+ *  features named in FEATURES, each measured as Red's count minus Blue's
+ *  (tempo is +1 when Red is to move and -1 otherwise).  The weights are
+ *  in units of log-odds of a Red win, as fitted by Tuner; eval scales
+ *  them by SCALE to get integer values for the AI.  An Evaluator keeps
+ *  scratch space, so each thread (each AI) should have its own.
+ *  @author Tianyi Xu
+ */
+class Evaluator {
+
+    /** Names of the features, in the order of a feature vector. */
+    static final String[] FEATURES = {
+        "squares", "spots", "critical", "edges", "corners", "tempo"
+    };
+
+    /** Number of features. */
+    static final int NUM_FEATURES = FEATURES.length;
+
+    /** Evaluation units per unit of log-odds. */
+    static final int SCALE = 100;
+
+    /** An evaluator with the given WEIGHTS, indexed as FEATURES. */
+    Evaluator(double[] weights) {
+        if (weights.length != NUM_FEATURES) {
+            throw new IllegalArgumentException("wrong number of weights");
+        }
+        _weights = weights.clone();
+    }
+
+    /** Return the evaluator read from the weights file FILENAME, which has
+     *  lines of the form "NAME VALUE", one per feature, plus optional
+     *  comments starting with "#". */
+    static Evaluator read(String fileName) throws IOException {
+        double[] weights = new double[NUM_FEATURES];
+        boolean[] seen = new boolean[NUM_FEATURES];
+        try (BufferedReader inp =
+             new BufferedReader(new FileReader(fileName))) {
+            for (String line = inp.readLine(); line != null;
+                 line = inp.readLine()) {
+                line = line.replaceFirst("#.*", "").trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                int k = featureIndex(parts[0]);
+                if (parts.length != 2 || k < 0) {
+                    throw error("bad line in weights file: %s", line);
+                }
+                weights[k] = Double.parseDouble(parts[1]);
+                seen[k] = true;
+            }
+        }
+        for (int k = 0; k < NUM_FEATURES; k += 1) {
+            if (!seen[k]) {
+                throw error("no weight for %s in %s", FEATURES[k], fileName);
+            }
+        }
+        return new Evaluator(weights);
+    }
+
+    /** Write my weights to FILENAME in the format read by read. */
+    void write(String fileName) throws IOException {
+        try (PrintWriter out = new PrintWriter(fileName)) {
+            out.println("# Jump61 evaluation weights (log-odds of a Red win)");
+            for (int k = 0; k < NUM_FEATURES; k += 1) {
+                out.printf("%s %.6f%n", FEATURES[k], _weights[k]);
+            }
+        }
+    }
+
+    /** Return the index of the feature NAME in FEATURES, or -1. */
+    private static int featureIndex(String name) {
+        for (int k = 0; k < NUM_FEATURES; k += 1) {
+            if (FEATURES[k].equals(name)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Store the features of BOARD in OUT[START .. START+NUM_FEATURES-1]. */
+    static void features(Board board, float[] out, int start) {
+        int N = board.size();
+        int squares, spots, edges, corners;
+        squares = spots = edges = corners = 0;
+        for (int n = 0; n < N * N; n += 1) {
+            Square sq = board.get(n);
+            Side side = sq.getSide();
+            int sign = side == RED ? 1 : side == BLUE ? -1 : 0;
+            if (sign != 0) {
+                int border = board.neighbors(n);
+                squares += sign;
+                spots += sign * sq.getSpots();
+                if (border == 2) {
+                    corners += sign;
+                } else if (border == 3) {
+                    edges += sign;
+                }
+            }
+        }
+        out[start] = squares;
+        out[start + 1] = spots;
+        out[start + 2] = board.numCritical(RED) - board.numCritical(BLUE);
+        out[start + 3] = edges;
+        out[start + 4] = corners;
+        out[start + 5] = board.whoseMove() == RED ? 1 : -1;
+    }
+
+    /** Return my value for BOARD (positive favoring Red), which must not
+     *  be won.  The value lies strictly between -LIMIT and LIMIT. */
+    int eval(Board board, int limit) {
+        features(board, _features, 0);
+        double sum = 0.0;
+        for (int k = 0; k < NUM_FEATURES; k += 1) {
+            sum += _weights[k] * _features[k];
+        }
+        long value = Math.round(SCALE * sum);
+        return (int) Math.max(-limit + 1, Math.min(limit - 1, value));
+    }
+
+    /** Return a bound on how much a move that makes nothing jump can
+     *  change my value: it claims at most one square, adds at most two
+     *  spots, and passes the move. */
+    int quietSwing() {
+        double swing = Math.abs(_weights[0]) + 2 * Math.abs(_weights[1])
+            + Math.abs(_weights[2]) + Math.abs(_weights[3])
+            + Math.abs(_weights[4]) + 2 * Math.abs(_weights[5]);
+        return (int) Math.ceil(SCALE * swing) + 1;
+    }
+
+    /** Return a checksum of my weights, which differs (almost surely)
+     *  between evaluators with different weights. */
+    long checksum() {
+        long sum = NUM_FEATURES;
+        for (double w : _weights) {
+            sum = sum * 1_000_003 + Double.doubleToLongBits(w);
+        }
+        return sum;
+    }
+
+    /** Return a copy of my weights. */
+    double[] weights() {
+        return _weights.clone();
+    }
+
+    /** Return the evaluator used by new AIs, or null if they are to use
+     *  their built-in evaluation. */
+    static Evaluator getDefault() {
+        return _default;
+    }
+
+    /** Make EVALUATOR the one used by AIs created from now on. */
+    static void setDefault(Evaluator evaluator) {
+        _default = evaluator;
+    }
+
+    /** Evaluator for new AIs (set at startup from --weights). */
+    private static volatile Evaluator _default;
+
+    /** Weights, indexed as FEATURES. */
+    private final double[] _weights;
+
+    /** Scratch feature vector for eval. */
+    private final float[] _features = new float[NUM_FEATURES];
+}
@@ -0,0 +1,112 @@
+package jump61;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events describing what Jump61 spends its time on.
+ *  They are recorded only when a recording enables them, as the profile
+ *  jump61.jfc in this directory does:
+ *      java -XX:StartFlightRecording=settings=jump61/jump61.jfc,\
+ *           filename=jump61.jfr jump61.Main ...
+ *  Otherwise, the JVM leaves their begin, end, and commit methods empty,
+ *  and the code that fills in their fields runs only when shouldCommit
+ *  is true, so they cost next to nothing.  Each kind of event has a
+ *  threshold (in the profile) below which it is not recorded.
+ *  @author Tianyi Xu
+ */
+class FlightEvents {
+
+    /** Not instantiated. */
+    private FlightEvents() {
+    }
+
+    /** A move in a Game, including its cascade and the update of the
+     *  view. */
+    @Name("jump61.Move")
+    @Label("Move")
+    @Category("Jump61")
+    @Description("A move made in a game")
+    static class Move extends Event {
+        /** Row moved to. */
+        @Label("Row")
+        int row;
+        /** Column moved to. */
+        @Label("Column")
+        int col;
+        /** Side that moved. */
+        @Label("Player")
+        String player;
+        /** Position after the move, in PositionCodec's text form, or
+         *  null after a winning move, which may leave squares with more
+         *  spots than the form can hold. */
+        @Label("Position")
+        String position;
+    }
+
+    /** The chain reaction caused by a move in a Game.  The cascades in AI
+     *  searches are not recorded, so that searching allocates nothing. */
+    @Name("jump61.Cascade")
+    @Label("Cascade")
+    @Category("Jump61")
+    @Description("Toppling of over-full squares after a move")
+    @StackTrace(false)
+    static class Cascade extends Event {
+        /** Number of squares on a side of the board. */
+        @Label("Board Size")
+        int size;
+        /** Rounds of toppling, or -1 if the cascade ran in parallel. */
+        @Label("Rounds")
+        int rounds;
+        /** Squares toppled, or -1 if the cascade ran in parallel. */
+        @Label("Topples")
+        int topples;
+    }
+
+    /** A search by an AI for its next move. */
+    @Name("jump61.Search")
+    @Label("Search")
+    @Category("Jump61")
+    @Description("A search for a move by an AI")
+    static class Search extends Event {
+        /** Side searching. */
+        @Label("Player")
+        String player;
+        /** Depth completed. */
+        @Label("Depth")
+        int depth;
+        /** Nodes visited. */
+        @Label("Nodes")
+        long nodes;
+        /** Probes of the transposition table. */
+        @Label("Table Probes")
+        long probes;
+        /** Probes that found an entry for the position. */
+        @Label("Table Hits")
+        long hits;
+        /** Fraction of probes that hit. */
+        @Label("Table Hit Rate")
+        double hitRate;
+        /** Value found (positive favoring Red). */
+        @Label("Value")
+        int value;
+        /** Position searched, in PositionCodec's text form. */
+        @Label("Position")
+        String position;
+    }
+
+    /** An update of a game's View after a change to its board. */
+    @Name("jump61.ViewUpdate")
+    @Label("View Update")
+    @Category("Jump61")
+    @Description("Update of the display after a change to the board")
+    @StackTrace(false)
+    static class ViewUpdate extends Event {
+        /** Class of the view. */
+        @Label("View")
+        String view;
+    }
+}
@@ -6,6 +6,8 @@
 // solutions.
 package jump61;
 
+import java.util.concurrent.ExecutorService;
+
 import static jump61.Side.*;
 import static jump61.GameException.error;
 import static jump61.Utils.*;
@@ -20,9 +22,9 @@ class Game {
 
     /** A list of all commands. */
     private static final String[] COMMAND_NAMES = {
-        "auto", "board", "clear", "dump", "help", "manual",
+        "analyze", "auto", "board", "clear", "dump", "help", "manual",
         "new", "q", "quiet", "quit",
-        "seed", "set", "size", "start", "verbose",
+        "seed", "set", "size", "solve", "start", "stats", "verbose",
     };
 
     /** A new Game that takes command/move input from INP, logs
@@ -31,15 +33,39 @@ class Game {
      *  seed a random number generator, if one is used in an AI.
      */
     Game(CommandSource inp, View view, Reporter reporter, boolean logging) {
+        this(inp, view, reporter, logging, false);
+    }
+
+    /** A new Game as for Game(INP, VIEW, REPORTER, LOGGING) that exits
+     *  with code 1 on any user error iff STRICT. */
+    Game(CommandSource inp, View view, Reporter reporter, boolean logging,
+         boolean strict) {
         _inp = inp;
         _view = view;
         _reporter = reporter;
         _logging = logging;
+        _strict = strict;
         _seed = (long) (Math.random() * Long.MAX_VALUE);
 
         _board = new Board(Defaults.BOARD_SIZE);
         _readonlyBoard = new ConstantBoard(_board);
-        _board.setNotifier((b) -> _view.update(b));
+        _board.setCascadeEvents(_view.cascadeEvents());
+        if (_view.boardListener() != null) {
+            _board.addListener(_view.boardListener());
+        }
+        _board.setNotifier(this::updateView);
+    }
+
+    /** Update my view to show BOARD. */
+    private void updateView(Board board) {
+        FlightEvents.ViewUpdate event = new FlightEvents.ViewUpdate();
+        event.begin();
+        _view.update(board);
+        event.end();
+        if (event.shouldCommit()) {
+            event.view = _view.getClass().getSimpleName();
+            event.commit();
+        }
     }
 
     /** Returns a readonly view of the game board.  This board remains valid
@@ -59,7 +85,7 @@ class Game {
     int play() {
         boolean winnerAnnounced;
 
-        System.out.println("Welcome to " + Defaults.VERSION);
+        _reporter.log("Welcome to %s", Defaults.VERSION);
         _board.clear(Defaults.BOARD_SIZE);
         setManual(RED);
         setAuto(BLUE);
@@ -74,6 +100,9 @@ class Game {
                     executeCommand(getPlayer(_board.whoseMove()).getMove());
                 } catch (GameException e) {
                     reportError(e.getMessage());
+                    if (shutDown()) {
+                        _exit = 1;
+                    }
                 }
             } else if (!gameInProgress()) {
                 if (!winnerAnnounced) {
@@ -83,6 +112,7 @@ class Game {
                 executeCommand(getCommand());
             }
         }
+        _reporter.flush();
         return _exit;
     }
 
@@ -97,6 +127,7 @@ class Game {
 
     /** Return a command from the current source. */
     String getCommand() {
+        _reporter.flush();
         String cmnd = _inp.getCommand(prompt());
         if (cmnd == null) {
             return "quit";
@@ -108,16 +139,39 @@ class Game {
     /** Add a spot to R C, if legal to do so. */
     void makeMove(int r, int c) {
         assert _board.isLegal(_board.whoseMove(), r, c);
-        _board.addSpot(_board.whoseMove(), r, c);
-        if (_verbose) {
-            printBoard();
-        }
+        makeMove(_board.sqNum(r, c));
     }
 
     /** Add a spot to square #N, if legal to do so. */
     void makeMove(int n) {
         assert _board.isLegal(_board.whoseMove(), n);
-        _board.addSpot(_board.whoseMove(), n);
+        FlightEvents.Move event = new FlightEvents.Move();
+        FlightEvents.Cascade cascade = new FlightEvents.Cascade();
+        Side player = _board.whoseMove();
+        event.begin();
+        cascade.begin();
+        _board.addSpot(player, n);
+        cascade.end();
+        event.end();
+        Metrics.MOVES.increment();
+        if (_board.lastCascade() >= 0) {
+            Metrics.CASCADE_TOPPLES.record(_board.lastCascade());
+        }
+        if (_board.lastCascade() != 0 && cascade.shouldCommit()) {
+            cascade.size = _board.size();
+            cascade.rounds = _board.lastCascadeRounds();
+            cascade.topples = _board.lastCascade();
+            cascade.commit();
+        }
+        if (event.shouldCommit()) {
+            event.row = _board.row(n);
+            event.col = _board.col(n);
+            event.player = player.toString();
+            if (_board.getWinner() == null) {
+                event.position = PositionCodec.toText(_board);
+            }
+            event.commit();
+        }
         if (_verbose) {
             printBoard();
         }
@@ -180,17 +234,21 @@ class Game {
 
     /** Print the current board using standard board-dump format. */
     private void dump() {
-        _reporter.msg(_board.toString());
+        _rendering.setLength(0);
+        _board.render(_rendering);
+        _reporter.msg("%s", _rendering);
     }
 
     /** Print a board with row/column numbers. */
     private void printBoard() {
-        _reporter.msg(_board.toDisplayString());
+        _rendering.setLength(0);
+        _board.renderDisplay(_rendering);
+        _reporter.msg("%s", _rendering);
     }
 
     /** Print a help message. */
     private void help() {
-        printHelpResource(HELP, System.out);
+        _reporter.log("%s", helpResource(HELP).stripTrailing());
     }
 
     /** Seed the random-number generator with SEED. */
@@ -256,12 +314,19 @@ class Game {
 
     /** Execute command CMND.  Throws GameException on errors. */
     private void executeCommand(String cmnd) {
+        long start = System.nanoTime();
         String[] parts = cmnd.trim().toLowerCase().split("\\s+");
         log(cmnd);
         try {
             switch (canonicalizeCommand(parts[0])) {
             case "#": case "":
                 break;
+            case "analyze":
+                analyze(parts.length > 1 ? Double.parseDouble(parts[1])
+                        : ANALYSIS_SECONDS,
+                        parts.length > 2 ? toInt(parts[2])
+                        : ANALYSIS_MOVES);
+                break;
             case "auto":
                 setAuto(toSide(parts[1]));
                 break;
@@ -296,6 +361,13 @@ class Game {
             case "size":
                 setSize(toInt(parts[1]));
                 break;
+            case "solve":
+                solve(parts.length > 1 ? Long.parseLong(parts[1])
+                      : SOLVE_NODES);
+                break;
+            case "stats":
+                stats();
+                break;
             case "verbose":
                 _verbose = true;
                 break;
@@ -310,6 +382,87 @@ class Game {
             reportError("Argument(s) missing: %s", cmnd);
         } catch (GameException excp) {
             reportError(excp.getMessage());
+        } finally {
+            Metrics.COMMAND_SECONDS.record(System.nanoTime() - start);
+        }
+    }
+
+    /** Rank the moves for the side to move, showing the best COUNT of them
+     *  (or all if COUNT <= 0) as each depth of analysis completes, for at
+     *  most SECONDS seconds. */
+    private void analyze(double seconds, int count) {
+        if (_board.getWinner() != null) {
+            throw error("game is over");
+        }
+        Side side = _board.whoseMove();
+        AI analyst;
+        if (_players[side.ordinal()] instanceof AI) {
+            analyst = (AI) _players[side.ordinal()];
+        } else {
+            if (_analysts[side.ordinal()] == null) {
+                _analysts[side.ordinal()] = new AI(this, side, _seed);
+            }
+            analyst = _analysts[side.ordinal()];
+        }
+        int sense = side == RED ? 1 : -1;
+        analyst.limit(Long.MAX_VALUE,
+                      System.nanoTime() + (long) (seconds * 1e9));
+        analyst.analyze(_board, ANALYSIS_DEPTH, count,
+                        (depth, ranking, nodes, elapsed) -> {
+            _reporter.analysis("Depth %d (%d nodes, %d ms):", depth, nodes,
+                               elapsed / 1_000_000);
+            int rank = 1;
+            for (AI.Candidate move : ranking) {
+                StringBuilder line = new StringBuilder();
+                for (int n : move.line) {
+                    line.append(line.length() == 0 ? "" : ", ")
+                        .append(_board.moveString(n));
+                }
+                _reporter.analysis("%3d. %-6s %2s%-8d %s", rank,
+                                   _board.moveString(move.move),
+                                   move.exact ? "" : "<=",
+                                   sense * move.value, line);
+                rank += 1;
+            }
+        });
+    }
+
+    /** Try to prove a win or loss for the side to move, visiting at most
+     *  NODES positions, and report the outcome. */
+    private void solve(long nodes) {
+        if (_board.getWinner() != null) {
+            throw error("game is over");
+        }
+        if (_solver == null) {
+            _solver = new Solver(SOLVER_BITS);
+        }
+        String side = _board.whoseMove().toCapitalizedString();
+        switch (_solver.solve(_board, nodes)) {
+        case Solver.WIN:
+            _reporter.msg("%s to move wins with %s (proved in %d"
+                          + " positions).", side,
+                          _board.moveString(_solver.move()),
+                          _solver.nodes());
+            break;
+        case Solver.LOSS:
+            _reporter.msg("%s to move loses against best play (proved in"
+                          + " %d positions).", side, _solver.nodes());
+            break;
+        default:
+            _reporter.msg("Not solved in %d positions.", _solver.nodes());
+            break;
+        }
+    }
+
+    /** Report the last search made by each AI player. */
+    private void stats() {
+        for (Side side : new Side[] { RED, BLUE }) {
+            Player player = _players[side.ordinal()];
+            if (player instanceof AI) {
+                String summary = ((AI) player).searchSummary(_board);
+                _reporter.msg("%s: %s", side,
+                              summary == null ? "no search yet" : summary);
+            }
         }
     }
 
@@ -318,7 +471,7 @@ class Game {
      *  String.format. */
     private void log(String format, Object... args) {
         if (_logging) {
-            System.out.printf(format + "%n", args);
+            _reporter.log(format, args);
         }
     }
 
@@ -326,11 +479,30 @@ class Game {
      *  and ARGS, whose meanings are as for printf. */
     void reportError(String format, Object... args) {
         _reporter.err(format, args);
-        if (Main.strict()) {
+        if (_strict) {
             _exit = 1;
         }
     }
 
+    /** Return true iff play must end because my thread has been
+     *  interrupted or my search pool shut down (see
+     *  SessionEngine.shutdown). */
+    private boolean shutDown() {
+        return Thread.currentThread().isInterrupted()
+            || (_searchPool != null && _searchPool.isShutdown());
+    }
+
+    /** Use POOL, if not null, to run the searches of my AIs, rather than
+     *  running them on the thread that calls play. */
+    void setSearchPool(ExecutorService pool) {
+        _searchPool = pool;
+    }
+
+    /** Return the pool set by setSearchPool, or null if none. */
+    ExecutorService searchPool() {
+        return _searchPool;
+    }
+
     /** Returns command input for the current game. */
     private final CommandSource _inp;
     /** Outlet for responses to the user. */
@@ -344,6 +516,13 @@ class Game {
     private View _view;
     /** True iff we are logging commands. */
     private boolean _logging;
+    /** True iff user errors end the session with exit code 1. */
+    private final boolean _strict;
+    /** Pool for AI searches, or null to search on the calling thread. */
+    private ExecutorService _searchPool;
+
+    /** Reused buffer for printing the board. */
+    private final StringBuilder _rendering = new StringBuilder();
 
     /** True iff we should print the board after each move. */
     private boolean _verbose;
@@ -357,6 +536,28 @@ class Game {
      *  indicates that the session is not over. */
     private int _exit;
 
+    /** Default time limit in seconds for the analyze command. */
+    static final double ANALYSIS_SECONDS = 2.0;
+
+    /** Default number of moves shown by the analyze command. */
+    static final int ANALYSIS_MOVES = 3;
+
+    /** Maximum depth of analysis. */
+    static final int ANALYSIS_DEPTH = 64;
+
+    /** Default number of positions the solve command may visit. */
+    static final long SOLVE_NODES = 1_000_000;
+
+    /** Log2 of the number of entries in the solve command's table. */
+    static final int SOLVER_BITS = 20;
+
+    /** AIs used by the analyze command for sides whose players are not
+     *  AIs, indexed by color, created on demand. */
+    private final AI[] _analysts = new AI[Side.values().length];
+
+    /** Solver used by the solve command, created on demand. */
+    private Solver _solver;
+
     /** Current players, indexed by color (RED, BLUE). */
     private final Player[] _players = new Player[Side.values().length];
 
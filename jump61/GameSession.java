@@ -0,0 +1,80 @@
+package jump61;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/** One Jump61 session (possibly several games) running on its own thread,
+ *  as started by SessionEngine.start.
+ *  @author Tianyi Xu
+ */
+class GameSession {
+
+    /** A session that plays GAME, calling ONEXIT with itself once play
+     *  is over. */
+    GameSession(Game game, Consumer<GameSession> onExit) {
+        _game = game;
+        _onExit = onExit;
+    }
+
+    /** Start playing on a thread from THREADS. */
+    void start(ThreadFactory threads) {
+        _thread = threads.newThread(this::run);
+        _thread.start();
+    }
+
+    /** Return my Game. */
+    Game game() {
+        return _game;
+    }
+
+    /** Return true iff play has finished. */
+    boolean isDone() {
+        return _done.getCount() == 0;
+    }
+
+    /** Wait for play to finish, and return its exit code: 0 is normal,
+     *  and any positive quantity indicates an error. */
+    int await() throws InterruptedException {
+        _done.await();
+        return _exitCode;
+    }
+
+    /** Return the exception that ended play abnormally, or null. */
+    Throwable failure() {
+        return _failure;
+    }
+
+    /** Interrupt my thread, if running. */
+    void interrupt() {
+        if (_thread != null) {
+            _thread.interrupt();
+        }
+    }
+
+    /** Body of my thread. */
+    private void run() {
+        try {
+            _exitCode = _game.play();
+        } catch (RuntimeException | Error excp) {
+            _failure = excp;
+            _exitCode = 1;
+        } finally {
+            _onExit.accept(this);
+            _done.countDown();
+        }
+    }
+
+    /** The game played. */
+    private final Game _game;
+    /** Called when play is over. */
+    private final Consumer<GameSession> _onExit;
+    /** Counted down when play is over. */
+    private final CountDownLatch _done = new CountDownLatch(1);
+    /** Thread running play. */
+    private Thread _thread;
+    /** Exit code of play; valid once _done is zero. */
+    private volatile int _exitCode;
+    /** Exception that ended play, if any. */
+    private volatile Throwable _failure;
+}
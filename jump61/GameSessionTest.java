@@ -0,0 +1,148 @@
+package jump61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of sessions run concurrently by a SessionEngine.
+ *  @author Tianyi Xu
+ */
+public class GameSessionTest {
+
+    /** Commands for a game between two manual players that Blue wins. */
+    private static final String MANUAL_GAME =
+        "size 2\nmanual blue\n1 1\n1 2\n2 1\ndump\n1 2\nquit\n";
+
+    /** Commands for a game between two AIs. */
+    private static final String AUTO_GAME =
+        "size 3\nseed 130223\nauto red\nauto blue\n";
+
+    @Test
+    public void testConcurrentSessions() throws InterruptedException {
+        SessionEngine engine = new SessionEngine(2);
+        int numSessions = 50;
+        ByteArrayOutputStream[] outputs =
+            new ByteArrayOutputStream[numSessions];
+        GameSession[] sessions = new GameSession[numSessions];
+        for (int i = 0; i < numSessions; i += 1) {
+            outputs[i] = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(outputs[i], true);
+            List<Reader> script = new ArrayList<>();
+            script.add(new StringReader(i % 2 == 0 ? MANUAL_GAME
+                                        : AUTO_GAME));
+            sessions[i] = engine.start(new TextSource(script, out),
+                                       (b) -> { },
+                                       new TextReporter(out, out), false);
+        }
+        for (int i = 0; i < numSessions; i += 1) {
+            assertEquals("exit code", 0, sessions[i].await());
+            assertNull("failure", sessions[i].failure());
+            String output = outputs[i].toString();
+            if (i % 2 == 0) {
+                assertTrue("wrong dump in session " + i,
+                           output.contains("    2r 2b\n    2r 1-\n"));
+                assertTrue("no win in session " + i,
+                           output.contains("* Blue wins."));
+            } else {
+                assertTrue("no win in session " + i,
+                           output.contains(" wins."));
+            }
+        }
+        assertEquals("sessions left", 0, engine.numSessions());
+        engine.shutdown();
+    }
+
+    /** Commands for a game between two AIs on a large board. */
+    private static final String LARGE_AUTO_GAME =
+        "size 10\nseed 28\nauto red\nauto blue\n";
+
+    @Test
+    public void testShutdownDuringAIMove() throws InterruptedException {
+        CountDownLatch searching = new CountDownLatch(1);
+        ExecutorService pool =
+            new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<>()) {
+                @Override
+                protected void beforeExecute(Thread thread, Runnable task) {
+                    searching.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException excp) {
+                        thread.interrupt();
+                    }
+                }
+            };
+        SessionEngine engine = new SessionEngine(pool);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true);
+        List<Reader> script = new ArrayList<>();
+        script.add(new StringReader(LARGE_AUTO_GAME));
+        GameSession session =
+            engine.start(new TextSource(script, out), (b) -> { },
+                         new TextReporter(out, out), false);
+        searching.await();
+        engine.shutdown();
+        assertEquals("exit code", 1, session.await());
+        assertNull("failure", session.failure());
+        assertTrue("no error reported",
+                   output.toString().contains("search interrupted"));
+        assertEquals("sessions left", 0, engine.numSessions());
+    }
+
+    @Test
+    public void testWinningMoveEvent()
+        throws InterruptedException, IOException {
+        File file = File.createTempFile("jump61", ".jfr");
+        file.deleteOnExit();
+        List<RecordedEvent> moves = new ArrayList<>();
+        try (Recording recording = new Recording()) {
+            recording.enable("jump61.Move").withThreshold(Duration.ZERO);
+            recording.start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(output, true);
+            List<Reader> script = new ArrayList<>();
+            script.add(new StringReader(MANUAL_GAME));
+            SessionEngine engine = new SessionEngine(1);
+            GameSession session =
+                engine.start(new TextSource(script, out), (b) -> { },
+                             new TextReporter(out, out), false);
+            assertEquals("exit code", 0, session.await());
+            assertNull("failure", session.failure());
+            engine.shutdown();
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        for (RecordedEvent event
+                 : RecordingFile.readAllEvents(file.toPath())) {
+            if (event.getEventType().getName().equals("jump61.Move")) {
+                moves.add(event);
+            }
+        }
+        assertEquals("moves recorded", 4, moves.size());
+        moves.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+        RecordedEvent last = moves.get(3);
+        assertEquals(1, last.getInt("row"));
+        assertEquals(2, last.getInt("col"));
+        assertNull("position after win", last.getString("position"));
+        assertNotNull(moves.get(2).getString("position"));
+    }
+
+}
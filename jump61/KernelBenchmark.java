@@ -0,0 +1,78 @@
+package jump61;
+
+import java.util.Random;
+
+/** Times the scalar and vector versions of Kernels.countCritical (behind
+ *  Board.numCritical) against each other on random positions of several
+ *  sizes.  Run with
+ *      java --add-modules jdk.incubator.vector jump61.KernelBenchmark [N...]
+ *  where the N are board sizes (default 10 100 1000 4000).  Without the
+ *  module, only the scalar kernels are timed.
+ *  @author Tianyi Xu
+ */
+public class KernelBenchmark {
+
+    /** Approximate number of squares scanned per timing of one kernel. */
+    private static final long WORK = 200_000_000L;
+
+    /** Time the kernels on boards whose sizes are given by ARGS. */
+    public static void main(String[] args) {
+        int[] sizes = { 10, 100, 1000, 4000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i += 1) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Kernels scalar = new ScalarKernels();
+        Kernels best = Kernels.INSTANCE;
+        System.out.printf("%-10s %-14s %12s %12s %8s%n", "size", "kernel",
+                          scalar, best, "speedup");
+        for (int N : sizes) {
+            Board board = randomBoard(N, new Random(N));
+            byte[] spots = new byte[N * N], sides = new byte[N * N],
+                capacity = new byte[N * N];
+            for (int n = 0; n < N * N; n += 1) {
+                spots[n] = (byte) board.get(n).getSpots();
+                sides[n] = (byte) board.get(n).getSide().ordinal();
+                capacity[n] = (byte) board.neighbors(n);
+            }
+            double t0 = time(scalar, spots, sides, capacity);
+            double t1 = time(best, spots, sides, capacity);
+            System.out.printf("%-10d %-14s %9.3f ns %9.3f ns %7.2fx%n",
+                              N, "numCritical", t0, t1, t0 / t1);
+        }
+    }
+
+    /** Return an N x N board with random contents generated by GEN.  No
+     *  square is over-full. */
+    private static Board randomBoard(int N, Random gen) {
+        Board board = new Board(N);
+        for (int n = 0; n < N * N; n += 1) {
+            int spots = 1 + gen.nextInt(board.neighbors(n));
+            board.set(board.row(n), board.col(n), spots,
+                      gen.nextBoolean() ? Side.RED : Side.BLUE);
+        }
+        return board;
+    }
+
+    /** Return the average time in nanoseconds per square for KERNELS to
+     *  count Blue's critical squares in a position given by SPOTS, SIDES,
+     *  CAPACITY. */
+    private static double time(Kernels kernels, byte[] spots,
+                               byte[] sides, byte[] capacity) {
+        int reps = (int) Math.max(1, WORK / spots.length);
+        byte blue = (byte) Side.BLUE.ordinal();
+        for (int i = 0; i < reps; i += 1) {
+            _sink += kernels.countCritical(spots, capacity, sides, blue);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < reps; i += 1) {
+            _sink += kernels.countCritical(spots, capacity, sides, blue);
+        }
+        return (double) (System.nanoTime() - start) / reps / spots.length;
+    }
+
+    /** Accumulates kernel results so that they are not optimized away. */
+    private static long _sink;
+}
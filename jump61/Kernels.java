@@ -0,0 +1,44 @@
+package jump61;
+
+/** Whole-board scans over the flat, one-byte-per-square arrays used by
+ *  Board, for the counts that Board does not keep up to date as squares
+ *  change.  There is a plain scalar implementation and, when the JVM is
+ *  started with the jdk.incubator.vector module, one that uses the Java
+ *  Vector API; INSTANCE is the best of these available at startup.
+ *  @author Tianyi Xu
+ */
+interface Kernels {
+
+    /** The implementation used by Boards. */
+    Kernels INSTANCE = Chooser.choose();
+
+    /** Return the number of squares n with SIDES[n] == SIDE and
+     *  SPOTS[n] == CAPACITY[n] (i.e., squares of SIDE that will jump on
+     *  the next spot added to them). */
+    int countCritical(byte[] spots, byte[] capacity, byte[] sides, byte side);
+
+    /** Selects the implementation of Kernels. */
+    class Chooser {
+        /** Name of the class implementing Kernels with the Vector API.  It
+         *  is loaded reflectively so that nothing here refers to
+         *  jdk.incubator.vector when that module is absent. */
+        private static final String VECTOR_KERNELS = "jump61.VectorKernels";
+
+        /** Return a VectorKernels if the Vector API is available and the
+         *  system property jump61.scalar is not set, and otherwise a
+         *  ScalarKernels. */
+        static Kernels choose() {
+            if (!Boolean.getBoolean("jump61.scalar")
+                && ModuleLayer.boot().findModule("jdk.incubator.vector")
+                   .isPresent()) {
+                try {
+                    return (Kernels) Class.forName(VECTOR_KERNELS)
+                        .getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError excp) {
+                    Utils.debug(1, "Vector kernels unavailable: %s", excp);
+                }
+            }
+            return new ScalarKernels();
+        }
+    }
+}
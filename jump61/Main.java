@@ -1,7 +1,9 @@
 package jump61;
 
+import java.io.File;
 import java.io.InputStreamReader;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -19,11 +21,18 @@ public class Main {
     static final String USAGE = "jump61/Usage.txt";
 
     /** Play jump61.  ARGS0 may consist of the single string
-     *  '--display' to indicate that the game is played using a GUI. Prints
+     *  '--display' to indicate that the game is played using a GUI, or
+     *  '--engine' to take commands in the EngineProtocol. Prints
      *  a usage message if the arguments are wrong. */
     public static void main(String[] args0) {
         CommandArgs args =
             new CommandArgs("--display{0,1} --strict{0,1} --version{0,1}"
+                            + " --engine{0,1} --weights=(.+){0,1}"
+                            + " --network=(.+){0,1}"
+                            + " --cache=(.+){0,1} --transcript=(.+){0,1}"
+                            + " --metrics=(.+){0,1}"
+                            + " --metrics-period=(\\d+){0,1}"
+                            + " --batch=(.+){0,1}"
                             + " --debug=(\\d+){0,1} --log --=(.*){0,}", args0);
 
         if (!args.ok()) {
@@ -36,16 +45,81 @@ public class Main {
             System.exit(0);
         }
 
-        _strict = args.contains("--strict");
+        boolean strict = args.contains("--strict");
         boolean log = args.contains("--log");
         if (args.contains("--debug")) {
             Utils.setMessageLevel(args.getInt("--debug"));
         }
 
+        if (args.contains("--weights")) {
+            try {
+                String weights = args.getFirst("--weights");
+                Evaluator.setDefault(Evaluator.read(weights));
+            } catch (IOException | GameException | NumberFormatException excp) {
+                System.err.printf("Could not read weights: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (args.contains("--network")) {
+            try {
+                String network = args.getFirst("--network");
+                TupleNetwork.setDefault(TupleNetwork.read(network));
+            } catch (IOException | GameException excp) {
+                System.err.printf("Could not read network: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (args.contains("--cache")) {
+            try {
+                long evaluation = AI.evaluation(Evaluator.getDefault(),
+                                                TupleNetwork.getDefault());
+                PositionCache cache =
+                    PositionCache.open(args.getFirst("--cache"), evaluation);
+                PositionCache.setDefault(cache);
+                Runtime.getRuntime().addShutdownHook(new Thread(cache::close));
+            } catch (IOException | GameException excp) {
+                System.err.printf("Could not open cache: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (args.contains("--metrics")) {
+            int period = args.contains("--metrics-period")
+                ? Math.max(1, args.getInt("--metrics-period"))
+                : Defaults.METRICS_PERIOD;
+            try {
+                Metrics.startExport(args.getFirst("--metrics"), period);
+            } catch (IOException excp) {
+                System.err.printf("Could not write metrics: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (args.contains("--batch")) {
+            File dir = new File(args.getFirst("--batch"));
+            System.exit(ScriptRunner.runAll(dir,
+                                            Runtime.getRuntime()
+                                            .availableProcessors(),
+                                            System.out));
+        }
+
+        if (args.contains("--engine")) {
+            EngineProtocol engine =
+                new EngineProtocol(new InputStreamReader(System.in),
+                                   System.out);
+            System.exit(engine.run());
+        }
+
         Game game;
         if (args.contains("--display")) {
             Display display = new Display("Jump61");
-            game = new Game(display, display, display, log);
+            game = new Game(display, display, display, log, strict);
             game.play();
         } else {
             TextSource source;
@@ -66,26 +140,37 @@ public class Main {
                     }
                 }
             }
+            TextReporter reporter = new TextReporter();
+            AsyncWriter transcript = null;
+            if (args.contains("--transcript")) {
+                try {
+                    String name = args.getFirst("--transcript");
+                    transcript = new AsyncWriter(new FileWriter(name));
+                    reporter.setTranscript(transcript);
+                } catch (IOException excp) {
+                    System.err.printf("Could not open transcript: %s%n",
+                                      excp.getMessage());
+                    System.exit(1);
+                }
+            }
             game = new Game(new TextSource(inReaders),
-                            (b) -> { }, new TextReporter(), log);
-            System.exit(game.play());
+                            (b) -> { }, reporter, log, strict);
+            int code = game.play();
+            if (transcript != null) {
+                try {
+                    transcript.close();
+                } catch (IOException excp) {
+                    System.err.printf("Could not write transcript: %s%n",
+                                      excp.getMessage());
+                }
+            }
+            System.exit(code);
         }
     }
 
-    /** Return true if in strict mode, where user errors are not allowed and
-     *  cause error exit from the program. */
-    static boolean strict() {
-        return _strict;
-    }
-
     /** Print usage message. */
     private static void usage() {
         printHelpResource(USAGE, System.err);
     }
 
-    /** True if we are to run in strict mode. */
-    private static boolean _strict;
-    /** True if we should log moves and commands. */
-    private static boolean _log;
-
 }
@@ -0,0 +1,491 @@
+package jump61;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/** Counters and histograms describing the work done by all games in this
+ *  process, and their export to a file.  Every metric is a static field
+ *  here, so the set of them is fixed and a CSV file's columns never
+ *  change.  Counters are LongAdders and histograms are arrays of atomic
+ *  bucket counts, so recording never locks and threads seldom contend.
+ *
+ *  startExport writes a snapshot of all metrics every few seconds, and
+ *  once more on exit, either in the Prometheus text format (replacing the
+ *  file, by renaming a fresh copy over it, as file-scraping collectors
+ *  expect) or, for a file named *.csv, as one more row of a CSV file
+ *  whose header names its columns.  Counters in a CSV file also get a
+ *  column giving their rate per second since the previous row.
+ *  @author Tianyi Xu
+ */
+class Metrics {
+
+    /** All metrics, in order of registration.  (Declared first, so that
+     *  it exists when the fields below register themselves.) */
+    private static final List<Metric> ALL = new ArrayList<>();
+
+    /** Moves made in games. */
+    static final Counter MOVES =
+        counter("jump61_moves_total", "Moves made in games");
+    /** Time taken by AIs to choose moves in games. */
+    static final Histogram AI_MOVE_SECONDS =
+        histogram("jump61_ai_move_seconds",
+                  "Time taken by an AI to choose a move", 1e-9);
+    /** Squares toppled by moves in games. */
+    static final Histogram CASCADE_TOPPLES =
+        histogram("jump61_cascade_topples",
+                  "Squares toppled by a move (sequential cascades only)",
+                  1.0);
+    /** Positions visited by AI searches. */
+    static final Counter SEARCH_NODES =
+        counter("jump61_search_nodes_total",
+                "Positions visited by AI searches");
+    /** Probes of AIs' transposition tables. */
+    static final Counter TABLE_PROBES =
+        counter("jump61_table_probes_total",
+                "Probes of AI transposition tables");
+    /** Probes of AIs' transposition tables that found their position. */
+    static final Counter TABLE_HITS =
+        counter("jump61_table_hits_total",
+                "Transposition table probes that found their position");
+    /** Fraction of transposition-table probes that hit. */
+    static final Gauge TABLE_HIT_RATIO =
+        ratio("jump61_table_hit_ratio",
+              "Fraction of transposition table probes that hit",
+              TABLE_HITS, TABLE_PROBES);
+    /** Probes of position caches. */
+    static final Counter CACHE_PROBES =
+        counter("jump61_cache_probes_total", "Probes of position caches");
+    /** Probes of position caches that found their position. */
+    static final Counter CACHE_HITS =
+        counter("jump61_cache_hits_total",
+                "Position cache probes that found their position");
+    /** Fraction of position-cache probes that hit. */
+    static final Gauge CACHE_HIT_RATIO =
+        ratio("jump61_cache_hit_ratio",
+              "Fraction of position cache probes that hit",
+              CACHE_HITS, CACHE_PROBES);
+    /** Time taken by Game.executeCommand. */
+    static final Histogram COMMAND_SECONDS =
+        histogram("jump61_command_seconds",
+                  "Time taken to execute a command", 1e-9);
+
+    /** Quantiles reported for each histogram. */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** Not instantiated. */
+    private Metrics() {
+    }
+
+    /** A metric named NAME, described by HELP. */
+    abstract static class Metric {
+
+        /** A metric named NAME, described by HELP. */
+        Metric(String name, String help) {
+            _name = name;
+            _help = help;
+        }
+
+        /** Return my name. */
+        String name() {
+            return _name;
+        }
+
+        /** Return my description. */
+        String help() {
+            return _help;
+        }
+
+        /** My name. */
+        private final String _name;
+        /** My description. */
+        private final String _help;
+    }
+
+    /** A count that only increases. */
+    static final class Counter extends Metric {
+
+        /** A counter named NAME, described by HELP. */
+        private Counter(String name, String help) {
+            super(name, help);
+        }
+
+        /** Add 1 to me. */
+        void increment() {
+            _count.increment();
+        }
+
+        /** Add N to me. */
+        void add(long n) {
+            _count.add(n);
+        }
+
+        /** Return my count. */
+        long get() {
+            return _count.sum();
+        }
+
+        /** My count. */
+        private final LongAdder _count = new LongAdder();
+    }
+
+    /** A value computed when it is exported. */
+    static final class Gauge extends Metric {
+
+        /** A gauge named NAME, described by HELP, whose value is given by
+         *  VALUE. */
+        private Gauge(String name, String help, DoubleSupplier value) {
+            super(name, help);
+            _value = value;
+        }
+
+        /** Return my value. */
+        double get() {
+            return _value.getAsDouble();
+        }
+
+        /** Source of my value. */
+        private final DoubleSupplier _value;
+    }
+
+    /** A distribution of non-negative long values, kept as in an HDR
+     *  histogram: values below SUB_BUCKETS have buckets of their own, and
+     *  each range [2**k, 2**(k+1)) above that is split into SUB_BUCKETS
+     *  equal buckets, so that a bucket's bounds are within about 6% of
+     *  any value in it, over the whole range of longs, in under a
+     *  thousand buckets. */
+    static final class Histogram extends Metric {
+
+        /** Log2 of the number of buckets per power of two. */
+        static final int SUB_BITS = 4;
+        /** Number of buckets per power of two. */
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+        /** Number of buckets. */
+        static final int BUCKETS = SUB_BUCKETS * (Long.SIZE - SUB_BITS);
+
+        /** A histogram named NAME, described by HELP, whose values are
+         *  multiplied by UNIT when exported. */
+        private Histogram(String name, String help, double unit) {
+            super(name, help);
+            _unit = unit;
+        }
+
+        /** Record VALUE (negative values count as 0). */
+        void record(long value) {
+            value = Math.max(0, value);
+            _counts.incrementAndGet(bucket(value));
+            _sum.add(value);
+        }
+
+        /** Return the number of values recorded. */
+        long count() {
+            long count = 0;
+            for (int b = 0; b < BUCKETS; b += 1) {
+                count += _counts.get(b);
+            }
+            return count;
+        }
+
+        /** Return the sum of the values recorded. */
+        long sum() {
+            return _sum.sum();
+        }
+
+        /** Return the factor by which my values are multiplied when they
+         *  are exported (as to convert nanoseconds to seconds). */
+        double unit() {
+            return _unit;
+        }
+
+        /** Store in RESULT[i] the largest value in the bucket holding
+         *  the QUANTILES[i] quantile of the values recorded, for each i,
+         *  all 0 if none have been, and return the number recorded. */
+        long quantiles(double[] quantiles, long[] result) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int b = 0; b < BUCKETS; b += 1) {
+                counts[b] = _counts.get(b);
+                total += counts[b];
+            }
+            for (int i = 0; i < quantiles.length; i += 1) {
+                long rank = (long) Math.ceil(quantiles[i] * total);
+                long seen = 0;
+                int b;
+                for (b = 0; b < BUCKETS - 1; b += 1) {
+                    seen += counts[b];
+                    if (seen >= Math.max(1, rank)) {
+                        break;
+                    }
+                }
+                result[i] = total == 0 ? 0 : highest(b);
+            }
+            return total;
+        }
+
+        /** Return the bucket holding VALUE >= 0. */
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value)
+                - SUB_BITS;
+            return SUB_BUCKETS * (shift + 1)
+                + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        /** Return the largest value in bucket B. */
+        static long highest(int b) {
+            if (b < SUB_BUCKETS) {
+                return b;
+            }
+            int shift = b / SUB_BUCKETS - 1;
+            long low = (long) (b % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return low + ((1L << shift) - 1);
+        }
+
+        /** Number of values recorded in each bucket. */
+        private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+        /** Sum of values recorded. */
+        private final LongAdder _sum = new LongAdder();
+        /** Multiplier applied to values on export. */
+        private final double _unit;
+    }
+
+    /** Return a new counter named NAME, described by HELP. */
+    private static Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    /** Return a new histogram named NAME, described by HELP, whose values
+     *  are multiplied by UNIT on export. */
+    private static Histogram histogram(String name, String help,
+                                       double unit) {
+        return register(new Histogram(name, help, unit));
+    }
+
+    /** Return a new gauge named NAME, described by HELP, whose value is
+     *  NUMERATOR / DENOMINATOR, or 0 while DENOMINATOR is 0. */
+    private static Gauge ratio(String name, String help,
+                               Counter numerator, Counter denominator) {
+        return register(new Gauge(name, help, () -> {
+            long den = denominator.get();
+            return den == 0 ? 0.0 : (double) numerator.get() / den;
+        }));
+    }
+
+    /** Add METRIC to ALL and return it. */
+    private static <T extends Metric> T register(T metric) {
+        ALL.add(metric);
+        return metric;
+    }
+
+    /** Write all metrics to OUT in the Prometheus text format. */
+    static void writePrometheus(Appendable out) throws IOException {
+        long[] values = new long[QUANTILES.length];
+        for (Metric metric : ALL) {
+            String name = metric.name();
+            out.append(String.format("# HELP %s %s\n", name, metric.help()));
+            if (metric instanceof Counter) {
+                out.append(String.format("# TYPE %s counter\n%s %d\n",
+                                         name, name,
+                                         ((Counter) metric).get()));
+            } else if (metric instanceof Gauge) {
+                out.append(String.format("# TYPE %s gauge\n%s %s\n",
+                                         name, name,
+                                         number(((Gauge) metric).get())));
+            } else {
+                Histogram hist = (Histogram) metric;
+                long count = hist.quantiles(QUANTILES, values);
+                out.append(String.format("# TYPE %s summary\n", name));
+                for (int i = 0; i < QUANTILES.length; i += 1) {
+                    out.append(String.format("%s{quantile=\"%s\"} %s\n",
+                                             name, number(QUANTILES[i]),
+                                             number(values[i]
+                                                    * hist.unit())));
+                }
+                out.append(String.format("%s_sum %s\n%s_count %d\n",
+                                         name,
+                                         number(hist.sum() * hist.unit()),
+                                         name, count));
+            }
+        }
+    }
+
+    /** Write the header line of a CSV file of snapshots to OUT. */
+    static void writeCsvHeader(Appendable out) throws IOException {
+        out.append("time");
+        for (Metric metric : ALL) {
+            String name = metric.name();
+            if (metric instanceof Counter) {
+                out.append(',').append(name)
+                    .append(',').append(name).append("_per_second");
+            } else if (metric instanceof Gauge) {
+                out.append(',').append(name);
+            } else {
+                out.append(',').append(name).append("_count")
+                    .append(',').append(name).append("_sum");
+                for (double q : QUANTILES) {
+                    out.append(',').append(name).append("_p")
+                        .append(number(100 * q).replace(".", ""));
+                }
+            }
+        }
+        out.append(EOL);
+    }
+
+    /** Write a CSV line to OUT giving the values of all metrics at
+     *  MILLIS milliseconds since the epoch.  PREVIOUS holds the counts of
+     *  the counters as of the last line, written PREVIOUSMILLIS
+     *  milliseconds since the epoch, and is updated. */
+    static void writeCsvLine(Appendable out, long millis,
+                             long[] previous, long previousMillis)
+        throws IOException {
+        long[] values = new long[QUANTILES.length];
+        double seconds = Math.max(1, millis - previousMillis) * 1e-3;
+        out.append(Long.toString(millis / 1000));
+        int c;
+        c = 0;
+        for (Metric metric : ALL) {
+            if (metric instanceof Counter) {
+                long count = ((Counter) metric).get();
+                out.append(',').append(Long.toString(count))
+                    .append(',')
+                    .append(number((count - previous[c]) / seconds));
+                previous[c] = count;
+                c += 1;
+            } else if (metric instanceof Gauge) {
+                out.append(',').append(number(((Gauge) metric).get()));
+            } else {
+                Histogram hist = (Histogram) metric;
+                long count = hist.quantiles(QUANTILES, values);
+                out.append(',').append(Long.toString(count))
+                    .append(',').append(number(hist.sum() * hist.unit()));
+                for (long value : values) {
+                    out.append(',').append(number(value * hist.unit()));
+                }
+            }
+        }
+        out.append(EOL);
+    }
+
+    /** Return the number of counters. */
+    private static int numCounters() {
+        int n;
+        n = 0;
+        for (Metric metric : ALL) {
+            n += metric instanceof Counter ? 1 : 0;
+        }
+        return n;
+    }
+
+    /** Start writing snapshots of all metrics to the file named NAME every
+     *  PERIOD seconds and on exit, as described in the class comment.
+     *  Throws IOException if the file cannot be written. */
+    static synchronized void startExport(String name, int period)
+        throws IOException {
+        if (_exporter != null) {
+            throw new IllegalStateException("metrics already exported");
+        }
+        Path path = Paths.get(name);
+        boolean csv = name.toLowerCase().endsWith(".csv");
+        long[] previous = new long[numCounters()];
+        long[] previousMillis = { System.currentTimeMillis() };
+        if (csv) {
+            if (!Files.exists(path) || Files.size(path) == 0) {
+                try (Writer out = Files.newBufferedWriter(path)) {
+                    writeCsvHeader(out);
+                }
+            }
+        } else {
+            snapshot(path);
+        }
+        Runnable export = () -> {
+            try {
+                synchronized (Metrics.class) {
+                    if (csv) {
+                        long now = System.currentTimeMillis();
+                        StringBuilder line = new StringBuilder();
+                        writeCsvLine(line, now, previous, previousMillis[0]);
+                        previousMillis[0] = now;
+                        Files.write(path,
+                                    line.toString()
+                                    .getBytes(StandardCharsets.UTF_8),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.APPEND);
+                    } else {
+                        snapshot(path);
+                    }
+                }
+            } catch (IOException excp) {
+                System.err.printf("Could not write metrics: %s%n",
+                                  excp.getMessage());
+            }
+        };
+        _exporter = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _exporter.scheduleAtFixedRate(export, period, period,
+                                      TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            _exporter.shutdownNow();
+            export.run();
+        }));
+    }
+
+    /** Replace the file at PATH with a Prometheus snapshot of all
+     *  metrics. */
+    private static void snapshot(Path path) throws IOException {
+        StringBuilder text = new StringBuilder();
+        writePrometheus(text);
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, ".metrics", ".tmp");
+        try {
+            Files.write(temp,
+                        text.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Return X formatted as Prometheus and CSV readers expect. */
+    private static String number(double x) {
+        if (x == Math.rint(x) && Math.abs(x) < 1e15) {
+            return Long.toString((long) x);
+        }
+        return new BigDecimal(x).round(DIGITS).stripTrailingZeros()
+            .toPlainString();
+    }
+
+    /** Precision of exported values that are not integers. */
+    private static final MathContext DIGITS = new MathContext(9);
+
+    /** Line separator. */
+    private static final String EOL = System.lineSeparator();
+
+    /** Thread writing snapshots, or null if none. */
+    private static ScheduledExecutorService _exporter;
+}
@@ -0,0 +1,316 @@
+package jump61;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Does the jumping for a large Board in the same synchronous rounds as
+ *  Board.jump, but with the board divided into TILE_SIZE x TILE_SIZE tiles
+ *  whose squares topple in parallel.  Each round has two phases.  In the
+ *  first, every tile topples its own over-full squares, adding spots
+ *  directly to neighbors inside the tile and queuing spots that cross a
+ *  tile boundary in one of its four halo buffers.  In the second, every
+ *  tile adds the spots its neighbors queued for it and collects its
+ *  over-full squares for the next round.  A tile only ever writes its own
+ *  squares, so no locking is needed.
+ *  @author Tianyi Xu
+ */
+class ParallelCascade {
+
+    /** Number of squares on a side of a tile. */
+    static final int TILE_SIZE = 64;
+
+    /** Rounds in which fewer than this many squares topple are done in
+     *  the calling thread, where forking would cost more than it saves. */
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    /** Indices of the halo buffers of a Tile, by direction. */
+    private static final int UP = 0, DOWN = 1, LEFT = 2, RIGHT = 3;
+
+    /** A cascade engine for a SIZE x SIZE board whose spot counts, owners
+     *  (as Side ordinals) and neighbor counts are SPOTS, SIDES, and
+     *  CAPACITY, in row-major order.  These arrays are shared with the
+     *  board, not copied. */
+    ParallelCascade(int size, byte[] spots, byte[] sides, byte[] capacity) {
+        _size = size;
+        _spots = spots;
+        _sides = sides;
+        _capacity = capacity;
+        _stamps = new int[size * size];
+        _tilesPerSide = (size + TILE_SIZE - 1) / TILE_SIZE;
+        _tiles = new Tile[_tilesPerSide * _tilesPerSide];
+        for (int i = 0; i < _tiles.length; i += 1) {
+            _tiles[i] = new Tile(i / _tilesPerSide, i % _tilesPerSide);
+        }
+        _active = new Tile[_tiles.length];
+        _touched = new Tile[_tiles.length];
+        _tileStamps = new int[_tiles.length];
+    }
+
+    /** Do all jumping, assuming that initially, S is the only over-full
+     *  square, that it belongs to PLAYER (a Side ordinal), and that OTHERS
+     *  squares do not belong to PLAYER.  Uses POOL for rounds large
+     *  enough to be worth splitting. */
+    void jump(int S, byte player, int others, ForkJoinPool pool) {
+        Tile start = tileAt(S / _size / TILE_SIZE, S % _size / TILE_SIZE);
+        int toppling;
+        _player = player;
+        start.frontier[0] = S;
+        start.count = 1;
+        toppling = 1;
+        while (toppling > 0 && others > 0) {
+            _round += 1;
+            int numActive, numTouched;
+            numActive = numTouched = 0;
+            for (Tile tile : _tiles) {
+                if (tile.count > 0) {
+                    _active[numActive] = tile;
+                    numActive += 1;
+                    numTouched = touch(tile, numTouched);
+                    numTouched = touch(tile.neighbor(UP), numTouched);
+                    numTouched = touch(tile.neighbor(DOWN), numTouched);
+                    numTouched = touch(tile.neighbor(LEFT), numTouched);
+                    numTouched = touch(tile.neighbor(RIGHT), numTouched);
+                }
+            }
+            if (toppling < PARALLEL_THRESHOLD) {
+                for (int k = 0; k < numActive; k += 1) {
+                    _active[k].topple();
+                }
+                for (int k = 0; k < numTouched; k += 1) {
+                    _touched[k].receive();
+                }
+            } else {
+                pool.invoke(new Phase(_active, 0, numActive, true));
+                pool.invoke(new Phase(_touched, 0, numTouched, false));
+            }
+            toppling = 0;
+            for (int k = 0; k < numTouched; k += 1) {
+                others -= _touched[k].converted;
+                toppling += _touched[k].count;
+            }
+        }
+        for (Tile tile : _tiles) {
+            tile.count = 0;
+        }
+    }
+
+    /** Add TILE, if it exists, to the NUMTOUCHED tiles in _touched that
+     *  take part in the current round, and reset its per-round state.
+     *  Returns the new number of touched tiles. */
+    private int touch(Tile tile, int numTouched) {
+        if (tile == null || _tileStamps[tile.index] == _round) {
+            return numTouched;
+        }
+        _tileStamps[tile.index] = _round;
+        tile.numCandidates = 0;
+        tile.converted = 0;
+        for (int d = 0; d < 4; d += 1) {
+            tile.numOut[d] = 0;
+        }
+        _touched[numTouched] = tile;
+        return numTouched + 1;
+    }
+
+    /** Return the tile at tile row TR and tile column TC, or null if there
+     *  is none. */
+    private Tile tileAt(int tr, int tc) {
+        if (tr < 0 || tc < 0 || tr >= _tilesPerSide || tc >= _tilesPerSide) {
+            return null;
+        }
+        return _tiles[tr * _tilesPerSide + tc];
+    }
+
+    /** One rectangular block of squares, together with its work lists. */
+    private class Tile {
+
+        /** The tile at tile row TR and tile column TC. */
+        Tile(int tr, int tc) {
+            this.tr = tr;
+            this.tc = tc;
+            index = tr * _tilesPerSide + tc;
+            r0 = tr * TILE_SIZE;
+            c0 = tc * TILE_SIZE;
+            r1 = Math.min(r0 + TILE_SIZE, _size);
+            c1 = Math.min(c0 + TILE_SIZE, _size);
+            frontier = new int[(r1 - r0) * (c1 - c0)];
+            candidates = new int[frontier.length];
+            for (int d = 0; d < 4; d += 1) {
+                outbox[d] = new int[TILE_SIZE];
+            }
+        }
+
+        /** Return my neighboring tile in direction DIR, or null. */
+        Tile neighbor(int dir) {
+            switch (dir) {
+            case UP:
+                return tileAt(tr - 1, tc);
+            case DOWN:
+                return tileAt(tr + 1, tc);
+            case LEFT:
+                return tileAt(tr, tc - 1);
+            default:
+                return tileAt(tr, tc + 1);
+            }
+        }
+
+        /** Topple all my squares in frontier once (first phase). */
+        void topple() {
+            for (int k = 0; k < count; k += 1) {
+                int s = frontier[k];
+                int r = s / _size, c = s % _size;
+                _spots[s] -= _capacity[s];
+                addCandidate(s);
+                if (r > r0) {
+                    give(s - _size);
+                } else if (r > 0) {
+                    post(UP, s - _size);
+                }
+                if (r < r1 - 1) {
+                    give(s + _size);
+                } else if (r < _size - 1) {
+                    post(DOWN, s + _size);
+                }
+                if (c > c0) {
+                    give(s - 1);
+                } else if (c > 0) {
+                    post(LEFT, s - 1);
+                }
+                if (c < c1 - 1) {
+                    give(s + 1);
+                } else if (c < _size - 1) {
+                    post(RIGHT, s + 1);
+                }
+            }
+        }
+
+        /** Add the spots my neighbors sent me during the first phase, and
+         *  gather my over-full squares into frontier (second phase). */
+        void receive() {
+            take(neighbor(UP), DOWN);
+            take(neighbor(DOWN), UP);
+            take(neighbor(LEFT), RIGHT);
+            take(neighbor(RIGHT), LEFT);
+            count = 0;
+            for (int k = 0; k < numCandidates; k += 1) {
+                int n = candidates[k];
+                if (_spots[n] > _capacity[n]) {
+                    frontier[count] = n;
+                    count += 1;
+                }
+            }
+        }
+
+        /** Add one spot to each square in the halo buffer of SOURCE (if
+         *  not null) for direction DIR. */
+        private void take(Tile source, int dir) {
+            if (source != null && _tileStamps[source.index] == _round) {
+                int[] halo = source.outbox[dir];
+                for (int k = source.numOut[dir] - 1; k >= 0; k -= 1) {
+                    give(halo[k]);
+                }
+            }
+        }
+
+        /** Queue a spot for square #N of my neighbor in direction DIR. */
+        private void post(int dir, int n) {
+            outbox[dir][numOut[dir]] = n;
+            numOut[dir] += 1;
+        }
+
+        /** Add one spot of the current player's to my square #N. */
+        private void give(int n) {
+            _spots[n] += 1;
+            addCandidate(n);
+            if (_sides[n] != _player) {
+                _sides[n] = _player;
+                converted += 1;
+            }
+        }
+
+        /** Record my square #N as possibly over-full after this round. */
+        private void addCandidate(int n) {
+            if (_stamps[n] != _round) {
+                _stamps[n] = _round;
+                candidates[numCandidates] = n;
+                numCandidates += 1;
+            }
+        }
+
+        /** My position in tile rows and columns, and in _tiles. */
+        private final int tr, tc, index;
+        /** My rows are r0 .. r1-1 and my columns c0 .. c1-1 (0-based). */
+        private final int r0, c0, r1, c1;
+        /** Squares to topple this round; the first COUNT are valid. */
+        private final int[] frontier;
+        /** Number of valid entries in frontier. */
+        private int count;
+        /** Squares that may be over-full after this round. */
+        private final int[] candidates;
+        /** Number of valid entries in candidates. */
+        private int numCandidates;
+        /** Halo buffers: squares of neighboring tiles to which I owe a
+         *  spot, by direction. */
+        private final int[][] outbox = new int[4][];
+        /** Number of valid entries in each outbox. */
+        private final int[] numOut = new int[4];
+        /** Number of my squares taken from the other side this round. */
+        private int converted;
+    }
+
+    /** Performs one phase of a round on a range of tiles, splitting the
+     *  range among the threads of the pool. */
+    private static class Phase extends RecursiveAction {
+
+        /** Phase for TILES[LO .. HI-1]: the toppling phase if TOPPLE, and
+         *  otherwise the halo-exchange phase. */
+        Phase(Tile[] tiles, int lo, int hi, boolean topple) {
+            _tiles = tiles;
+            _lo = lo;
+            _hi = hi;
+            _topple = topple;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo == 1) {
+                if (_topple) {
+                    _tiles[_lo].topple();
+                } else {
+                    _tiles[_lo].receive();
+                }
+            } else if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Phase(_tiles, _lo, mid, _topple),
+                          new Phase(_tiles, mid, _hi, _topple));
+            }
+        }
+
+        /** The tiles to process. */
+        private final Tile[] _tiles;
+        /** Bounds of my range of _tiles. */
+        private final int _lo, _hi;
+        /** True for the toppling phase. */
+        private final boolean _topple;
+    }
+
+    /** Number of squares on a side of the board. */
+    private final int _size;
+    /** Spot counts, owners and neighbor counts of the board's squares. */
+    private final byte[] _spots, _sides, _capacity;
+    /** _stamps[n] == _round iff square #n is already a candidate. */
+    private final int[] _stamps;
+    /** Number of tiles on a side of the board. */
+    private final int _tilesPerSide;
+    /** All tiles, in row-major order. */
+    private final Tile[] _tiles;
+    /** Tiles with squares to topple in the current round. */
+    private final Tile[] _active;
+    /** Tiles that topple or receive spots in the current round. */
+    private final Tile[] _touched;
+    /** _tileStamps[i] == _round iff _tiles[i] is in _touched. */
+    private final int[] _tileStamps;
+    /** Number of rounds performed so far. */
+    private int _round;
+    /** The Side ordinal of the player whose spots are jumping. */
+    private byte _player;
+}
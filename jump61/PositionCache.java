@@ -0,0 +1,294 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static jump61.GameException.error;
+
+/** A cache of search results that persists between runs in a file, which
+ *  is memory-mapped so that only the parts used are read.  Like a
+ *  TranspositionTable, it is indexed by canonical position keys and
+ *  holds a depth, value, and kind of bound for each position, plus the
+ *  best move found, expressed for the canonical orientation of the
+ *  position (see Board.canonicalSymmetry).
+ *
+ *  The file is a HEADER_SIZE-byte header (MAGIC, VERSION, the number of
+ *  slots, a power of two, and, at offset 16, the identifier of the static
+ *  evaluation that produced its values, from AI.evaluation) followed by
+ *  16-byte slots, each
+ *  holding a key and an entry.  A position may occupy any of PROBES
+ *  consecutive slots from the one its key selects; a new result takes
+ *  the slot of the same position if it is at least as deep, or else the
+ *  free or shallowest slot if that is no deeper.  Values from one
+ *  evaluation mean nothing to a search using another, so a file may be
+ *  opened only for the evaluation that created it.
+ *
+ *  Any number of processes may read the file at once, but only the one
+ *  holding its lock may write.  open takes the lock if it can and
+ *  otherwise opens the file read-only.  Since readers do not lock, each
+ *  slot stores its key XORed with its entry, so that a slot caught
+ *  half-written simply fails to match.
+ *  @author Tianyi Xu
+ */
+class PositionCache {
+
+    /** First word of a cache file ("J61C"). */
+    static final int MAGIC = 0x4a363143;
+
+    /** Version of the file format. */
+    static final int VERSION = 2;
+
+    /** Size in bytes of the file header. */
+    static final int HEADER_SIZE = 64;
+
+    /** Size in bytes of a slot. */
+    static final int SLOT_SIZE = 16;
+
+    /** Log2 of the number of slots in a newly created file (16 MB). */
+    static final int DEFAULT_BITS = 20;
+
+    /** Number of slots in which a position may be found. */
+    static final int PROBES = 4;
+
+    /** Result of probe for a position not in the cache. */
+    static final long MISSING = 0;
+
+    /** Return a cache for the file FILENAME holding results of the
+     *  static evaluation identified by EVALUATION, creating one of
+     *  2**DEFAULT_BITS slots if it does not exist.  The cache is writable
+     *  if no other process is writing the file and we may write it, and
+     *  read-only otherwise. */
+    static PositionCache open(String fileName, long evaluation)
+        throws IOException {
+        Path path = Paths.get(fileName);
+        if (!Files.exists(path)) {
+            create(path, DEFAULT_BITS, evaluation);
+        }
+        FileChannel channel = null;
+        FileLock lock = null;
+        if (Files.isWritable(path)) {
+            channel = FileChannel.open(path, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException excp) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                channel = null;
+            }
+        }
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        try {
+            return new PositionCache(channel, lock, fileName, evaluation);
+        } catch (IOException | GameException excp) {
+            channel.close();
+            throw excp;
+        }
+    }
+
+    /** Create an empty cache file PATH with 2**BITS slots, for results
+     *  of the static evaluation identified by EVALUATION. */
+    static void create(Path path, int bits, long evaluation)
+        throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                              StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(1 << bits);
+            header.putLong(16, evaluation);
+            header.rewind();
+            channel.write(header);
+            channel.write(ByteBuffer.allocate(1),
+                          HEADER_SIZE + ((long) SLOT_SIZE << bits) - 1);
+        }
+    }
+
+    /** A cache for the file NAME, open on CHANNEL, which I may write iff I
+     *  hold LOCK (not null), holding results of the evaluation identified
+     *  by EVALUATION. */
+    private PositionCache(FileChannel channel, FileLock lock, String name,
+                          long evaluation)
+        throws IOException {
+        _channel = channel;
+        _lock = lock;
+        boolean writable = lock != null;
+        long size = channel.size();
+        _buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE
+                              : FileChannel.MapMode.READ_ONLY, 0, size);
+        int slots = size < HEADER_SIZE ? 0 : _buffer.getInt(8);
+        if (size < HEADER_SIZE || _buffer.getInt(0) != MAGIC
+            || _buffer.getInt(4) != VERSION || slots <= 0
+            || Integer.bitCount(slots) != 1
+            || size < HEADER_SIZE + (long) SLOT_SIZE * slots) {
+            throw error("%s is not a position cache", name);
+        }
+        if (_buffer.getLong(16) != evaluation) {
+            throw error("%s holds results of another evaluation", name);
+        }
+        _mask = slots - 1;
+        _evaluation = evaluation;
+    }
+
+    /** Return the identifier of the static evaluation whose results I
+     *  hold (see AI.evaluation). */
+    long evaluation() {
+        return _evaluation;
+    }
+
+    /** Return true iff I record new results. */
+    boolean isWritable() {
+        return _lock != null;
+    }
+
+    /** Return the number of slots. */
+    int slots() {
+        return _mask + 1;
+    }
+
+    /** Return the entry for the position whose canonical key is KEY, or
+     *  MISSING.  Use depth, value, bound, and move to unpack it. */
+    long probe(long key) {
+        int h = index(key);
+        Metrics.CACHE_PROBES.increment();
+        for (int k = 0; k < PROBES; k += 1) {
+            int slot = (h + k) & _mask;
+            long entry = entry(slot);
+            if (entry != MISSING && storedKey(slot) == (key ^ entry)) {
+                Metrics.CACHE_HITS.increment();
+                return entry;
+            }
+        }
+        return MISSING;
+    }
+
+    /** Record that searching the position whose canonical key is KEY to
+     *  DEPTH found VALUE, whose kind (as for TranspositionTable) is BOUND,
+     *  and best move MOVE in the canonical orientation (or -1 if none).
+     *  Does nothing if I am read-only or the result is shallower than the
+     *  entries it would replace. */
+    void store(long key, int depth, int value, int bound, int move) {
+        if (!isWritable()) {
+            return;
+        }
+        int h = index(key);
+        int victim = -1, victimDepth = Integer.MAX_VALUE;
+        for (int k = 0; k < PROBES; k += 1) {
+            int slot = (h + k) & _mask;
+            long entry = entry(slot);
+            if (entry == MISSING) {
+                if (victimDepth > -1) {
+                    victim = slot;
+                    victimDepth = -1;
+                }
+            } else if (storedKey(slot) == (key ^ entry)) {
+                victim = slot;
+                victimDepth = depth(entry);
+                break;
+            } else if (depth(entry) < victimDepth) {
+                victim = slot;
+                victimDepth = depth(entry);
+            }
+        }
+        if (depth < victimDepth) {
+            return;
+        }
+        long entry = (value & 0xffffffffL)
+            | ((long) Math.min(depth, MAX_DEPTH) << 32)
+            | ((long) bound << 40)
+            | ((long) (move + 1 < MOVE_LIMIT ? move + 1 : 0) << 42);
+        long offset = HEADER_SIZE + (long) SLOT_SIZE * victim;
+        _buffer.putLong((int) offset + 8, entry);
+        _buffer.putLong((int) offset, key ^ entry);
+    }
+
+    /** Write any changes to the file and release it. */
+    void close() {
+        try {
+            if (isWritable()) {
+                _buffer.force();
+                _lock.release();
+            }
+            _channel.close();
+        } catch (IOException excp) {
+            /* Ignore: the cache is only an optimization. */
+        }
+    }
+
+    /** Return the search depth of ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xff;
+    }
+
+    /** Return the value of ENTRY. */
+    static int value(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the kind of value of ENTRY, as for TranspositionTable. */
+    static int bound(long entry) {
+        return (int) (entry >>> 40) & 3;
+    }
+
+    /** Return the best move of ENTRY in the canonical orientation, or -1
+     *  if none was recorded. */
+    static int move(long entry) {
+        return (int) (entry >>> 42) - 1;
+    }
+
+    /** Return the cache used by new AIs, or null if none. */
+    static PositionCache getDefault() {
+        return _default;
+    }
+
+    /** Make CACHE the one used by AIs created from now on. */
+    static void setDefault(PositionCache cache) {
+        _default = cache;
+    }
+
+    /** Return the first slot to probe for KEY. */
+    private int index(long key) {
+        return (int) (key ^ (key >>> 29)) & _mask;
+    }
+
+    /** Return the entry stored in SLOT. */
+    private long entry(int slot) {
+        return _buffer.getLong(HEADER_SIZE + SLOT_SIZE * slot + 8);
+    }
+
+    /** Return the (XORed) key stored in SLOT. */
+    private long storedKey(int slot) {
+        return _buffer.getLong(HEADER_SIZE + SLOT_SIZE * slot);
+    }
+
+    /** Largest depth recorded. */
+    private static final int MAX_DEPTH = 0xff;
+
+    /** Moves numbered this or more are not recorded. */
+    private static final int MOVE_LIMIT = 1 << 22;
+
+    /** Cache for new AIs (set at startup from --cache). */
+    private static volatile PositionCache _default;
+
+    /** The open file. */
+    private final FileChannel _channel;
+    /** The lock that makes me the writer, or null if I am read-only. */
+    private final FileLock _lock;
+    /** The mapped contents of the file. */
+    private final MappedByteBuffer _buffer;
+    /** Mask selecting a slot number from a hash. */
+    private final int _mask;
+    /** Identifier of the evaluation whose results I hold. */
+    private final long _evaluation;
+}
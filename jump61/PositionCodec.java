@@ -0,0 +1,232 @@
+package jump61;
+
+import java.nio.ByteBuffer;
+
+import static jump61.Side.*;
+import static jump61.Square.INITIAL;
+import static jump61.GameException.error;
+
+/** Compact encodings of Jump61 positions, for storing and exchanging
+ *  them.  Each square takes four bits: 0 for an initial (white) square,
+ *  its number of spots for a red square, and 8 plus its number of spots
+ *  for a blue one, so that squares of up to MAX_SPOTS spots can be
+ *  represented.  There are three forms:
+ *
+ *    words  A long[] whose low HEADER_BITS bits hold the size N, followed
+ *           by the N*N square codes in row-major order, each four bits
+ *           above the last, continuing from bit 0 of the next word.  A
+ *           6 x 6 position takes 3 words.
+ *    bytes  The size N as an unsigned short, then the square codes two to
+ *           a byte, the first in the high four bits.  A 6 x 6 position
+ *           takes 20 bytes.
+ *    text   The rows, top to bottom, each as N hexadecimal digits (one
+ *           per square code), separated by '/'; for example,
+ *           "1000/0000/00a0/0000" for a 4 x 4 board with one red and one
+ *           blue square.
+ *
+ *  Whose move it is follows from the position, so it is not recorded;
+ *  neither is the undo history, which decoding clears.
+ *  @author Tianyi Xu
+ */
+class PositionCodec {
+
+    /** Number of bits of the size at the start of the words form. */
+    static final int HEADER_BITS = 16;
+
+    /** Largest board size that can be encoded (one whose number of
+     *  squares fits comfortably in an int). */
+    static final int MAX_SIZE = 1 << 15;
+
+    /** Mask for the size at the start of the words and bytes forms. */
+    private static final int SIZE_MASK = (1 << HEADER_BITS) - 1;
+
+    /** Largest number of spots on a square that can be encoded. */
+    static final int MAX_SPOTS = 7;
+
+    /** Return the number of longs in the words form of an N x N
+     *  position. */
+    static int words(int N) {
+        return (int) ((HEADER_BITS + 4L * N * N + 63) / 64);
+    }
+
+    /** Return the number of bytes in the bytes form of an N x N
+     *  position. */
+    static int bytes(int N) {
+        return 2 + (N * N + 1) / 2;
+    }
+
+    /** Return the words form of BOARD. */
+    static long[] encode(Board board) {
+        long[] result = new long[words(board.size())];
+        encode(board, result, 0);
+        return result;
+    }
+
+    /** Store the words form of BOARD in OUT, starting at OUT[START], and
+     *  return the number of words stored. */
+    static int encode(Board board, long[] out, int start) {
+        int N = checkSize(board.size());
+        int len = words(N);
+        long word = N;
+        int bit = HEADER_BITS, k = start;
+        for (int n = 0; n < N * N; n += 1) {
+            word |= (long) code(board.get(n)) << bit;
+            bit += 4;
+            if (bit == 64) {
+                out[k] = word;
+                k += 1;
+                word = 0;
+                bit = 0;
+            }
+        }
+        if (bit > 0) {
+            out[k] = word;
+        }
+        return len;
+    }
+
+    /** Return the board size of the position whose words form starts at
+     *  WORDS[START]. */
+    static int size(long[] words, int start) {
+        return (int) words[start] & SIZE_MASK;
+    }
+
+    /** Set BOARD to the position whose words form starts at
+     *  WORDS[START], and return the number of words it occupies. */
+    static int decode(long[] words, int start, Board board) {
+        int N = size(words, start);
+        if (N == 0 || N > MAX_SIZE || start + words(N) > words.length) {
+            throw error("malformed position code");
+        }
+        byte[] cells = new byte[N * N];
+        int bit = HEADER_BITS, k = start;
+        for (int n = 0; n < N * N; n += 1) {
+            cells[n] = cell((int) (words[k] >>> bit) & 15, n, N);
+            bit += 4;
+            if (bit == 64) {
+                k += 1;
+                bit = 0;
+            }
+        }
+        board.setCells(N, cells);
+        return words(N);
+    }
+
+    /** Append the bytes form of BOARD to OUT. */
+    static void write(Board board, ByteBuffer out) {
+        int N = checkSize(board.size());
+        out.putShort((short) N);
+        for (int n = 0; n < N * N; n += 2) {
+            int hi = code(board.get(n));
+            int lo = n + 1 < N * N ? code(board.get(n + 1)) : 0;
+            out.put((byte) (hi << 4 | lo));
+        }
+    }
+
+    /** Set BOARD to the position whose bytes form is next in INP, and
+     *  advance INP past it. */
+    static void read(ByteBuffer inp, Board board) {
+        int N = inp.getShort() & SIZE_MASK;
+        if (N == 0 || N > MAX_SIZE || inp.remaining() < bytes(N) - 2) {
+            throw error("malformed position code");
+        }
+        byte[] cells = new byte[N * N];
+        for (int n = 0; n < N * N; n += 2) {
+            int b = inp.get();
+            cells[n] = cell((b >> 4) & 15, n, N);
+            if (n + 1 < N * N) {
+                cells[n + 1] = cell(b & 15, n + 1, N);
+            }
+        }
+        board.setCells(N, cells);
+    }
+
+    /** Return the text form of BOARD. */
+    static String toText(Board board) {
+        int N = checkSize(board.size());
+        StringBuilder result = new StringBuilder(N * (N + 1));
+        for (int n = 0; n < N * N; n += 1) {
+            if (n > 0 && n % N == 0) {
+                result.append('/');
+            }
+            result.append(Character.forDigit(code(board.get(n)), 16));
+        }
+        return result.toString();
+    }
+
+    /** Return the board size of the position whose text form is TEXT,
+     *  judging only by the length of its first row. */
+    static int size(String text) {
+        int N = text.indexOf('/');
+        return N < 0 ? text.length() : N;
+    }
+
+    /** Set BOARD to the position whose text form is TEXT. */
+    static void fromText(String text, Board board) {
+        int N = size(text);
+        if (N == 0 || N > MAX_SIZE
+            || text.length() != (long) N * (N + 1) - 1) {
+            throw error("malformed position code: %s", text);
+        }
+        byte[] cells = new byte[N * N];
+        for (int i = 0, n = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (i % (N + 1) == N) {
+                if (c != '/') {
+                    throw error("malformed position code: %s", text);
+                }
+                continue;
+            }
+            int code = Character.digit(c, 16);
+            if (code < 0) {
+                throw error("malformed position code: %s", text);
+            }
+            cells[n] = cell(code, n, N);
+            n += 1;
+        }
+        board.setCells(N, cells);
+    }
+
+    /** Return the four-bit code for SQ. */
+    private static int code(Square sq) {
+        Side side = sq.getSide();
+        int spots = sq.getSpots();
+        if (side == WHITE) {
+            return 0;
+        } else if (spots > MAX_SPOTS) {
+            throw error("cannot encode a square with %d spots", spots);
+        }
+        return (side == BLUE ? 8 : 0) + spots;
+    }
+
+    /** Return the square (as for Board.setCells) with four-bit CODE, at
+     *  square #N of an SIZE x SIZE board.  A square may hold at most as
+     *  many spots as it has neighbors; a code with more describes no
+     *  position a game can reach, and would leave the board with a jump
+     *  that never happened. */
+    private static byte cell(int code, int n, int size) {
+        if (code == 0) {
+            return (byte) (16 * WHITE.ordinal() + INITIAL.getSpots());
+        } else if (code == 8 || (code & 7) > neighbors(n, size)) {
+            throw error("malformed position code");
+        }
+        Side side = code < 8 ? RED : BLUE;
+        return (byte) (16 * side.ordinal() + (code & 7));
+    }
+
+    /** Return the number of neighbors of square #N of a SIZE x SIZE
+     *  board, as for Board.neighbors. */
+    private static int neighbors(int n, int size) {
+        int r = n / size, c = n % size;
+        return (r > 0 ? 1 : 0) + (c > 0 ? 1 : 0) + (r < size - 1 ? 1 : 0)
+            + (c < size - 1 ? 1 : 0);
+    }
+
+    /** Return N, after checking that it is an encodable size. */
+    private static int checkSize(int N) {
+        if (N > MAX_SIZE) {
+            throw error("board too large to encode");
+        }
+        return N;
+    }
+}
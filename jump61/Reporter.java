@@ -21,5 +21,20 @@ interface Reporter {
      *  the same meaning as in String.format. */
     void err(String format, Object... args);
 
+    /** Write a line of session output that is not addressed to a player
+     *  (the welcome banner, help text, and logged commands) as indicated
+     *  by FORMAT and ARGS, which have the same meaning as in
+     *  String.format. */
+    void log(String format, Object... args);
+
+    /** Report a line of the running analysis of a position (see the
+     *  analyze command) as indicated by FORMAT and ARGS, which have the
+     *  same meaning as in String.format. */
+    void analysis(String format, Object... args);
+
+    /** Send any output that I have buffered to its destination.  Called
+     *  before waiting for input and at the end of a session. */
+    void flush();
+
 }
 
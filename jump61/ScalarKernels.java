@@ -0,0 +1,24 @@
+package jump61;
+
+/** Kernels implemented with ordinary loops.
+ *  @author Tianyi Xu
+ */
+class ScalarKernels implements Kernels {
+
+    @Override
+    public int countCritical(byte[] spots, byte[] capacity, byte[] sides,
+                             byte side) {
+        int num = 0;
+        for (int n = 0; n < spots.length; n += 1) {
+            if (sides[n] == side && spots[n] == capacity[n]) {
+                num += 1;
+            }
+        }
+        return num;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,340 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Runs the test scripts (F.in files) of a directory in one JVM, several
+ *  at a time, as testing/test-jump61 runs each in a JVM of its own.  Each
+ *  script gets a Game reading it through a TextSource and reporting to a
+ *  Capture, which keeps what test-jump61 would put in F.out: the boards
+ *  printed between "===" lines, and the "wins" messages called for by the
+ *  script's special "#*" commands.  That is written to F.out and, if
+ *  there is an F.std, compared with it as testing/tester.py does.
+ *
+ *  Since a Game reads its next command only once its AIs have moved, the
+ *  messages that a special command waits for have always been produced
+ *  by the time the command is read, and it simply takes them from those
+ *  the Game has reported.  Time limits (#*time) are ignored, and scripts
+ *  for two programs (F-2.in, #*remote) are not supported.
+ *  @author Tianyi Xu
+ */
+class ScriptRunner {
+
+    /** Matches a special command in a script, giving its text. */
+    private static final Pattern SPECIAL =
+        Pattern.compile("\\s*#\\*\\s*(.*?)\\s*$");
+
+    /** Matches the special commands understood, with groups for
+     *  move/win[+], move, win+, and time. */
+    private static final Pattern DIRECTIVE =
+        Pattern.compile("(move/win(\\+?))|(move)|(win\\+)"
+                        + "|(time\\s+[\\d.]+\\s+[\\d/]+)");
+
+    /** Matches a comment or blank line. */
+    private static final Pattern BLANK = Pattern.compile("\\s*(#.*)?");
+
+    /** Run the scripts in DIR on THREADS threads, reporting on each to
+     *  OUT, and return 0 if all pass and 1 otherwise. */
+    static int runAll(File dir, int threads, PrintStream out) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".in")
+                                     && !name.endsWith("-2.in"));
+        if (files == null) {
+            out.printf("Could not read directory %s%n", dir);
+            return 1;
+        }
+        Arrays.sort(files);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<>();
+        for (File file : files) {
+            results.add(pool.submit(() -> run(file)));
+        }
+        int passed;
+        passed = 0;
+        try {
+            for (int i = 0; i < files.length; i += 1) {
+                String name = files[i].getName();
+                name = name.substring(0, name.length() - ".in".length());
+                String reason = results.get(i).get();
+                if (reason == null) {
+                    out.printf("** %s PASSED.%n", name);
+                    passed += 1;
+                } else {
+                    out.printf("** %s FAILED (%s)%n", name, reason);
+                }
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new Error(excp);
+        } finally {
+            pool.shutdown();
+        }
+        if (passed == files.length) {
+            out.printf("%nPassed all %d tests.%n", passed);
+            return 0;
+        }
+        out.printf("%nPassed %d out of %d tests.%n", passed, files.length);
+        return 1;
+    }
+
+    /** Run the script in FILE, writing its output files, and return null
+     *  if it passes, or else the reason it fails. */
+    static String run(File file) {
+        String base = file.getPath();
+        base = base.substring(0, base.length() - ".in".length());
+        if (base.endsWith("-1") && new File(base + "-2.in").exists()) {
+            return "scripts for two programs are not supported";
+        }
+        Capture capture = new Capture();
+        String reason;
+        try (BufferedReader script = Files.newBufferedReader(file.toPath())) {
+            reason = play(script, capture);
+        } catch (IOException excp) {
+            return excp.getMessage();
+        }
+        try {
+            write(new File(base + ".out"), capture.output());
+            if (capture.errors().length() > 0) {
+                write(new File(base + ".err"), capture.errors());
+            }
+            File std = new File(base + ".std");
+            if (reason == null && std.exists()) {
+                String expected = new String(Files.readAllBytes(std.toPath()),
+                                             StandardCharsets.US_ASCII);
+                if (!filter(expected).equals(filter(capture.output()))) {
+                    reason = "Output(s) do not all match expected output(s).";
+                }
+            }
+        } catch (IOException excp) {
+            return excp.getMessage();
+        }
+        return reason;
+    }
+
+    /** Play the Game in SCRIPT, reporting to CAPTURE, and return null if
+     *  it ends normally or else the reason it does not. */
+    private static String play(BufferedReader script, Capture capture)
+        throws IOException {
+        String command;
+        while (true) {
+            String line = script.readLine();
+            if (line == null || !BLANK.matcher(line).matches()) {
+                return "Could not find initial command line";
+            }
+            Matcher special = SPECIAL.matcher(line);
+            if (special.matches()) {
+                command = special.group(1);
+                break;
+            }
+        }
+        boolean strict = Arrays.asList(command.split("\\s+"))
+            .contains("--strict");
+        ScriptSource source = new ScriptSource(script, capture);
+        Game game = new Game(source, (b) -> { }, capture, false, strict);
+        int code;
+        try {
+            code = game.play();
+        } catch (RuntimeException | Error excp) {
+            return "terminated with " + excp;
+        }
+        if (source.failure() != null) {
+            return source.failure();
+        } else if (code != 0) {
+            String errors = capture.errors().toString().trim();
+            return errors.isEmpty() ? "process did not exit normally."
+                : errors;
+        }
+        return null;
+    }
+
+    /** Return TEXT without comments, trailing blanks, and blank lines, as
+     *  compared by tester.py. */
+    static String filter(CharSequence text) {
+        String result = text.toString().replaceAll("(?m)(?:#.*|[ \\t]+$)",
+                                                   "");
+        return result.replaceAll("(?m)(?:^\\r?\\n)", "");
+    }
+
+    /** Write TEXT to FILE. */
+    private static void write(File file, CharSequence text)
+        throws IOException {
+        Files.write(file.toPath(),
+                    text.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** A Reporter that keeps the output of a script's Game, as described
+     *  in the class comment. */
+    private static class Capture implements Reporter {
+
+        @Override
+        public void announceWin(Side side) {
+            _messages.add(String.format("* %s wins.",
+                                        side.toCapitalizedString()));
+        }
+
+        @Override
+        public void announceMove(int row, int col) {
+            _messages.add(String.format("* %d %d.", row, col));
+        }
+
+        @Override
+        public void msg(String format, Object... args) {
+            String text = String.format(format, args);
+            for (String line : text.split("\\r?\\n", -1)) {
+                if (_dumping) {
+                    _output.append(line).append('\n');
+                    _dumping = !line.startsWith("===");
+                } else if (line.startsWith("===")) {
+                    _output.append(line).append('\n');
+                    _dumping = true;
+                }
+            }
+        }
+
+        @Override
+        public void err(String format, Object... args) {
+            _errors.append(String.format(format, args)).append('\n');
+        }
+
+        @Override
+        public void log(String format, Object... args) {
+            msg(format, args);
+        }
+
+        @Override
+        public void analysis(String format, Object... args) {
+            msg(format, args);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        /** Remove and return the oldest move or win message not yet
+         *  taken, or null if there is none. */
+        String takeMessage() {
+            return _messages.poll();
+        }
+
+        /** Add TEXT as a line of output. */
+        void print(String text) {
+            _output.append(text).append('\n');
+        }
+
+        /** Return the output kept. */
+        CharSequence output() {
+            return _output;
+        }
+
+        /** Return the errors reported. */
+        CharSequence errors() {
+            return _errors;
+        }
+
+        /** Move and win messages not yet taken. */
+        private final ArrayDeque<String> _messages = new ArrayDeque<>();
+        /** Output kept. */
+        private final StringBuilder _output = new StringBuilder();
+        /** Errors reported. */
+        private final StringBuilder _errors = new StringBuilder();
+        /** True while inside a board printed between "===" lines. */
+        private boolean _dumping;
+    }
+
+    /** The commands of a script, as read by a TextSource, with its special
+     *  commands carried out on a Capture as they are reached. */
+    private static class ScriptSource implements CommandSource {
+
+        /** A source of the commands in SCRIPT whose special commands act
+         *  on CAPTURE. */
+        ScriptSource(BufferedReader script, Capture capture) {
+            _inp = new TextSource(new ArrayList<>(List.of(script)),
+                                  NO_PROMPTS);
+            _capture = capture;
+        }
+
+        @Override
+        public String getCommand(String prompt) {
+            if (_failure != null) {
+                return null;
+            }
+            String line = _inp.getCommand(null);
+            if (line != null) {
+                Matcher special = SPECIAL.matcher(line);
+                if (special.matches()) {
+                    _failure = execute(special.group(1));
+                    if (_failure != null) {
+                        return null;
+                    }
+                }
+            }
+            return line;
+        }
+
+        /** Return the reason the script failed, or null if it has not. */
+        String failure() {
+            return _failure;
+        }
+
+        /** Carry out the special command DIRECTIVE, returning null if
+         *  successful, or else the reason for failure. */
+        private String execute(String directive) {
+            Matcher mat = DIRECTIVE.matcher(directive);
+            if (!mat.matches()) {
+                return "Invalid command in testing file: #* " + directive;
+            } else if (mat.group(1) != null) {
+                while (true) {
+                    String msg = _capture.takeMessage();
+                    if (msg == null) {
+                        return "time limit exceeded waiting for my move";
+                    } else if (msg.endsWith("wins.")) {
+                        if (!mat.group(2).isEmpty()) {
+                            _capture.print(msg);
+                        }
+                        return null;
+                    }
+                }
+            } else if (mat.group(3) != null) {
+                String msg = _capture.takeMessage();
+                if (msg == null) {
+                    return "time limit exceeded waiting for my move";
+                }
+                return msg.endsWith("wins.") ? "unexpected win message"
+                    : null;
+            } else if (mat.group(4) != null) {
+                String msg = _capture.takeMessage();
+                if (msg == null) {
+                    return "time limit exceeded waiting for my move";
+                } else if (!msg.endsWith("wins.")) {
+                    return "expected win; received move";
+                }
+                _capture.print(msg);
+            }
+            return null;
+        }
+
+        /** Where prompts go. */
+        private static final PrintStream NO_PROMPTS =
+            new PrintStream(OutputStream.nullOutputStream());
+
+        /** Source of the script's lines. */
+        private final TextSource _inp;
+        /** Destination of the script's output. */
+        private final Capture _capture;
+        /** Reason the script failed, or null. */
+        private String _failure;
+    }
+}
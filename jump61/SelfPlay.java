@@ -0,0 +1,223 @@
+package jump61;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static jump61.Side.*;
+
+/** Generates labeled training positions for Tuner by having AIs play
+ *  each other, one game per available core at a time.  Usage:
+ *      java jump61.SelfPlay OUT GAMES [SIZE [DEPTH]]
+ *  plays GAMES games on SIZE x SIZE boards (default 6) with AIs searching
+ *  DEPTH plies (default 2), and writes every position reached after each
+ *  game's random opening to the positions file OUT, labeled with the
+ *  game's winner.
+ *
+ *  A positions file is a DataOutput stream: the int POSITIONS_MAGIC, then
+ *  for each position a byte that is 1 if Red won and 0 if Blue won, the
+ *  size N as a byte, and N*N bytes, one per square in row-major order,
+ *  each holding 16 * (ordinal of owning Side) + (number of spots).
+ *  @author Tianyi Xu
+ */
+public class SelfPlay {
+
+    /** First four bytes of a positions file ("J61P"). */
+    static final int POSITIONS_MAGIC = 0x4a363150;
+
+    /** Number of random moves that begin each game. */
+    static final int RANDOM_PLIES = 6;
+
+    /** Games still unfinished after this many moves per square are
+     *  abandoned (and not recorded). */
+    static final int MAX_MOVES_PER_SQUARE = 20;
+
+    /** Bytes of positions a worker collects before writing them. */
+    private static final int FLUSH_SIZE = 1 << 20;
+
+    /** Generate positions as described in the class comment, according
+     *  to ARGS. */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java jump61.SelfPlay OUT GAMES"
+                               + " [SIZE [DEPTH]]");
+            System.exit(1);
+        }
+        int games = Integer.parseInt(args[1]);
+        int size = args.length > 2 ? Integer.parseInt(args[2])
+            : Defaults.BOARD_SIZE;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        long start = System.nanoTime();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(args[0])))) {
+            out.writeInt(POSITIONS_MAGIC);
+            SelfPlay generator = new SelfPlay(size, depth, out);
+            long positions = generator.play(games);
+            double secs = (System.nanoTime() - start) * 1e-9;
+            System.err.printf("%d games, %d positions in %.1f s"
+                              + " (%.0f positions/s)%n", games, positions,
+                              secs, positions / secs);
+        }
+    }
+
+    /** A generator of games on SIZE x SIZE boards between AIs searching
+     *  DEPTH plies, writing positions to OUT. */
+    SelfPlay(int size, int depth, DataOutputStream out) {
+        _size = size;
+        _depth = depth;
+        _out = out;
+    }
+
+    /** Play GAMES games, spread over all processors, and return the
+     *  number of positions written. */
+    long play(int games) throws InterruptedException, IOException {
+        AtomicInteger nextGame = new AtomicInteger();
+        AtomicLong positions = new AtomicLong();
+        Thread[] workers =
+            new Thread[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < workers.length; i += 1) {
+            workers[i] = new Thread(() -> {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                for (int g = nextGame.getAndIncrement(); g < games;
+                     g = nextGame.getAndIncrement()) {
+                    positions.addAndGet(playGame(g, buffer));
+                    if (buffer.size() >= FLUSH_SIZE) {
+                        flush(buffer);
+                    }
+                }
+                flush(buffer);
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (_error != null) {
+            throw _error;
+        }
+        return positions.get();
+    }
+
+    /** Play game number GAME, appending its positions to BUFFER, and
+     *  return the number of positions. */
+    private int playGame(int game, ByteArrayOutputStream buffer) {
+        Random gen = new Random(game);
+        Board board = new Board(_size);
+        AI[] ais = new AI[Side.values().length];
+        ais[RED.ordinal()] = new AI(RED, 2L * game);
+        ais[BLUE.ordinal()] = new AI(BLUE, 2L * game + 1);
+        List<byte[]> seen = new ArrayList<>();
+        int maxMoves = MAX_MOVES_PER_SQUARE * _size * _size;
+        for (int k = 0; board.getWinner() == null; k += 1) {
+            if (k >= maxMoves) {
+                return 0;
+            }
+            Side player = board.whoseMove();
+            int move;
+            if (k < RANDOM_PLIES) {
+                move = randomMove(board, player, gen);
+            } else {
+                move = ais[player.ordinal()].searchPosition(board, _depth,
+                                                            null);
+            }
+            board.addSpot(player, move);
+            if (k >= RANDOM_PLIES - 1 && board.getWinner() == null) {
+                seen.add(encode(board));
+            }
+        }
+        int label = board.getWinner() == RED ? 1 : 0;
+        for (byte[] cells : seen) {
+            buffer.write(label);
+            buffer.write(_size);
+            buffer.write(cells, 0, cells.length);
+        }
+        return seen.size();
+    }
+
+    /** Return a random legal move for PLAYER on BOARD chosen with GEN. */
+    private static int randomMove(Board board, Side player, Random gen) {
+        int N = board.size();
+        while (true) {
+            int n = gen.nextInt(N * N);
+            if (board.isLegal(player, n)) {
+                return n;
+            }
+        }
+    }
+
+    /** Return the squares of BOARD encoded as for a positions file. */
+    static byte[] encode(Board board) {
+        int N = board.size();
+        byte[] cells = new byte[N * N];
+        for (int n = 0; n < N * N; n += 1) {
+            Square sq = board.get(n);
+            cells[n] = (byte) (16 * sq.getSide().ordinal() + sq.getSpots());
+        }
+        return cells;
+    }
+
+    /** Set BOARD to the position encoded (as for a positions file) in
+     *  CELLS, which describes an N x N board. */
+    static void decode(byte[] cells, int N, Board board) {
+        board.setCells(N, cells);
+    }
+
+    /** Read all positions from the positions file NAME, adding their
+     *  encoded squares to CELLS, their sizes to SIZES, and their labels
+     *  to LABELS. */
+    static void read(String name, List<byte[]> cells, List<Integer> sizes,
+                     List<Boolean> labels) throws IOException {
+        try (DataInputStream inp = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(name)))) {
+            if (inp.readInt() != POSITIONS_MAGIC) {
+                throw new IOException(name + " is not a positions file");
+            }
+            while (true) {
+                int label = inp.read();
+                if (label < 0) {
+                    break;
+                }
+                int N = inp.readUnsignedByte();
+                byte[] position = new byte[N * N];
+                inp.readFully(position);
+                cells.add(position);
+                sizes.add(N);
+                labels.add(label == 1);
+            }
+        } catch (EOFException excp) {
+            throw new IOException(name + " is truncated");
+        }
+    }
+
+    /** Write the contents of BUFFER to my output and clear BUFFER. */
+    private void flush(ByteArrayOutputStream buffer) {
+        synchronized (_out) {
+            try {
+                buffer.writeTo(_out);
+            } catch (IOException excp) {
+                _error = excp;
+            }
+        }
+        buffer.reset();
+    }
+
+    /** Board size. */
+    private final int _size;
+    /** Search depth of the AIs. */
+    private final int _depth;
+    /** Destination of positions. */
+    private final DataOutputStream _out;
+    /** The first error in writing _out, if any. */
+    private volatile IOException _error;
+}
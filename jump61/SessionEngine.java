@@ -0,0 +1,116 @@
+package jump61;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Hosts any number of independent Jump61 sessions in one JVM.  Each
+ *  session is a Game with its own CommandSource, View, and Reporter,
+ *  played on a thread of its own.  Where the JVM supports them (Java 21
+ *  and later), these are virtual threads, so that the many sessions that
+ *  are blocked in getCommand waiting for their players cost next to
+ *  nothing.  The searches of all the sessions' AIs share one bounded pool
+ *  of platform threads, so that they cannot tie up the (few) carriers of
+ *  the virtual threads.
+ *  @author Tianyi Xu
+ */
+class SessionEngine {
+
+    /** An engine whose AIs search on as many threads as there are
+     *  processors. */
+    SessionEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** An engine whose AIs search on SEARCHTHREADS threads. */
+    SessionEngine(int searchThreads) {
+        this(Executors.newFixedThreadPool(searchThreads,
+                                          platformThreads("jump61-search-")));
+    }
+
+    /** An engine whose AIs search on SEARCHPOOL, which shutdown shuts
+     *  down. */
+    SessionEngine(ExecutorService searchPool) {
+        _searchPool = searchPool;
+        _sessionThreads = virtualThreads();
+        if (_sessionThreads == null) {
+            _sessionThreads = platformThreads("jump61-session-");
+        }
+    }
+
+    /** Start and return a new session that takes commands from INP,
+     *  displays its board with VIEW, and reports to REPORTER.  User errors
+     *  end the session iff STRICT. */
+    GameSession start(CommandSource inp, View view, Reporter reporter,
+                      boolean strict) {
+        if (_searchPool.isShutdown()) {
+            throw new IllegalStateException("engine is shut down");
+        }
+        Game game = new Game(inp, view, reporter, false, strict);
+        game.setSearchPool(_searchPool);
+        GameSession session = new GameSession(game, _sessions::remove);
+        _sessions.add(session);
+        session.start(_sessionThreads);
+        return session;
+    }
+
+    /** Return the number of sessions that have not yet finished. */
+    int numSessions() {
+        return _sessions.size();
+    }
+
+    /** Return true iff my sessions run on virtual threads. */
+    boolean usesVirtualThreads() {
+        return _virtual;
+    }
+
+    /** Stop accepting sessions, interrupt those still running, and
+     *  release the search threads. */
+    void shutdown() {
+        _searchPool.shutdownNow();
+        for (GameSession session : _sessions) {
+            session.interrupt();
+        }
+    }
+
+    /** Return a factory for virtual threads, or null if this JVM does not
+     *  have them.  Goes through reflection so that this class still
+     *  compiles and runs on Java 17. */
+    private ThreadFactory virtualThreads() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class,
+                                                 long.class);
+            Method factory = builderClass.getMethod("factory");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = name.invoke(builder, "jump61-session-", 0L);
+            _virtual = true;
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException excp) {
+            return null;
+        }
+    }
+
+    /** Return a factory for daemon platform threads named PREFIX<n>. */
+    private static ThreadFactory platformThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return (r) -> {
+            Thread thread = new Thread(r, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /** Pool shared by the searches of all sessions' AIs. */
+    private final ExecutorService _searchPool;
+    /** Source of the threads that run sessions. */
+    private ThreadFactory _sessionThreads;
+    /** True iff _sessionThreads makes virtual threads. */
+    private boolean _virtual;
+    /** Sessions that have not yet finished. */
+    private final Set<GameSession> _sessions = ConcurrentHashMap.newKeySet();
+}
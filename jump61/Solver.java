@@ -0,0 +1,228 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** Proves or disproves a forced win for the side to move by depth-first
+ *  proof-number search (df-pn).  Unlike a fixed-depth search, this
+ *  follows forcing lines as deep as they go, spending its effort where
+ *  the fewest positions remain to be settled, and its answers are exact:
+ *  a WIN comes with a move that wins against any defense.
+ *
+ *  Every position is treated from the point of view of its side to move:
+ *  its proof number (phi) is the least number of unsettled positions
+ *  whose outcome would prove that the side to move wins, and its disproof
+ *  number (delta) the least number that would prove it loses.  A
+ *  position's phi is the least delta of its children, and its delta the
+ *  sum of their phis.  A position in which the game is over has been
+ *  lost by the side to move.  Results are kept in a table indexed by
+ *  canonical keys (see Board.canonicalKey), so transpositions and
+ *  symmetric positions share them.  Since every move adds a spot, no
+ *  position can recur within a game, so there are no cycles to handle.
+ *  Not thread-safe: each user has its own Solver.
+ *  @author Tianyi Xu
+ */
+class Solver {
+
+    /** Results of solve. */
+    static final int WIN = 1, LOSS = -1, UNKNOWN = 0;
+
+    /** Proof or disproof number of a settled position. */
+    static final int INFINITY = 100_000_000;
+
+    /** A solver whose table has 2**BITS entries (16 bytes each). */
+    Solver(int bits) {
+        _keys = new long[1 << bits];
+        _proofs = new int[1 << bits];
+        _disproofs = new int[1 << bits];
+        _mask = (1 << bits) - 1;
+    }
+
+    /** Forget all results. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_proofs, 0);
+        Arrays.fill(_disproofs, 0);
+    }
+
+    /** Return WIN if the side to move in POSITION can force a win, LOSS
+     *  if it cannot, or UNKNOWN if that was not settled after visiting
+     *  MAXNODES positions (or if the proof was lost from my table).
+     *  After a WIN, move() is a winning move.  Results are kept for later
+     *  calls. */
+    int solve(Board position, long maxNodes) {
+        Board board = _board;
+        board.copyFrom(position);
+        _nodes = 0;
+        _maxNodes = maxNodes;
+        _move = -1;
+        if (board.getWinner() != null) {
+            return LOSS;
+        }
+        allocate(0, board.size());
+        search(board, 0, INFINITY, INFINITY);
+        int index = probe(board.canonicalKey());
+        if (index == -1 || (_proofs[index] != 0 && _disproofs[index] != 0)) {
+            return UNKNOWN;
+        } else if (_proofs[index] != 0) {
+            return LOSS;
+        }
+        Side player = board.whoseMove();
+        int count = board.legalMoves(player, _moves[0]);
+        for (int i = 0; i < count; i += 1) {
+            board.addSpot(player, _moves[0][i]);
+            boolean won = board.getWinner() != null
+                || disproof(board.canonicalKey()) == 0;
+            board.undo();
+            if (won) {
+                _move = _moves[0][i];
+                break;
+            }
+        }
+        return _move == -1 ? UNKNOWN : WIN;
+    }
+
+    /** Return the winning move found by the last solve that returned
+     *  WIN, or -1. */
+    int move() {
+        return _move;
+    }
+
+    /** Return the number of positions visited by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Expand BOARD, at PLY plies from the position solved, until its
+     *  proof number reaches PROOFLIMIT or its disproof number reaches
+     *  DISPROOFLIMIT, or the node budget is spent, and record the result
+     *  in my table.  Leaves BOARD as it was. */
+    private void search(Board board, int ply, int proofLimit,
+                        int disproofLimit) {
+        _nodes += 1;
+        allocate(ply, board.size());
+        long key = board.canonicalKey();
+        Side player = board.whoseMove();
+        int[] moves = _moves[ply];
+        long[] keys = _childKeys[ply];
+        int count = board.legalMoves(player, moves);
+        for (int i = 0; i < count; i += 1) {
+            board.addSpot(player, moves[i]);
+            boolean won = board.getWinner() != null;
+            keys[i] = board.canonicalKey();
+            board.undo();
+            if (won) {
+                store(key, 0, INFINITY);
+                return;
+            }
+        }
+        while (true) {
+            int proof = INFINITY, disproof = 0, second = INFINITY;
+            int best = -1, bestProof = 0;
+            for (int i = 0; i < count; i += 1) {
+                int index = probe(keys[i]);
+                int childProof = index == -1 ? 1 : _proofs[index];
+                int childDisproof = index == -1 ? 1 : _disproofs[index];
+                disproof = Math.min(INFINITY, disproof + childProof);
+                if (childDisproof < proof) {
+                    second = proof;
+                    proof = childDisproof;
+                    best = i;
+                    bestProof = childProof;
+                } else if (childDisproof < second) {
+                    second = childDisproof;
+                }
+            }
+            if (proof >= proofLimit || disproof >= disproofLimit
+                || _nodes >= _maxNodes) {
+                store(key, proof, disproof);
+                return;
+            }
+            int childProofLimit =
+                Math.min(INFINITY, disproofLimit - disproof + bestProof);
+            int childDisproofLimit = Math.min(proofLimit, second + 1);
+            board.addSpot(player, moves[best]);
+            search(board, ply + 1, childProofLimit, childDisproofLimit);
+            board.undo();
+        }
+    }
+
+    /** Return the disproof number recorded for the position whose
+     *  canonical key is KEY (1 if none is). */
+    private int disproof(long key) {
+        int index = probe(key);
+        return index == -1 ? 1 : _disproofs[index];
+    }
+
+    /** Return the index of the entry for the position whose canonical
+     *  key is KEY, or -1 if there is none. */
+    private int probe(long key) {
+        int h = index(key);
+        for (int k = 0; k < 2; k += 1, h ^= 1) {
+            if (_keys[h] == key && (_proofs[h] | _disproofs[h]) != 0) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    /** Record PROOF and DISPROOF for the position whose canonical key is
+     *  KEY.  The position may occupy either of a pair of slots; it takes
+     *  the one it already has, or else an empty one, or else one holding
+     *  an unsettled position, or else the first.  Always storing the
+     *  newest result ensures that each step of search makes progress. */
+    private void store(long key, int proof, int disproof) {
+        int victim = probe(key);
+        if (victim == -1) {
+            int h = index(key);
+            victim = h;
+            for (int k = 0; k < 2; k += 1, h ^= 1) {
+                if ((_proofs[h] | _disproofs[h]) == 0) {
+                    victim = h;
+                    break;
+                } else if (_proofs[h] != 0 && _disproofs[h] != 0) {
+                    victim = h;
+                }
+            }
+        }
+        _keys[victim] = key;
+        _proofs[victim] = proof;
+        _disproofs[victim] = disproof;
+    }
+
+    /** Return the slot for KEY. */
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & _mask;
+    }
+
+    /** Make sure that my move buffers for PLY can hold the moves on an
+     *  N x N board. */
+    private void allocate(int ply, int N) {
+        if (ply >= _moves.length) {
+            int plies = Math.max(2 * _moves.length, ply + 1);
+            _moves = Arrays.copyOf(_moves, plies);
+            _childKeys = Arrays.copyOf(_childKeys, plies);
+        }
+        if (_moves[ply] == null || _moves[ply].length < N * N) {
+            _moves[ply] = new int[N * N];
+            _childKeys[ply] = new long[N * N];
+        }
+    }
+
+    /** Keys of the positions, indexed by slot. */
+    private final long[] _keys;
+    /** Proof and disproof numbers of the positions, indexed by slot;
+     *  both 0 for an empty slot. */
+    private final int[] _proofs, _disproofs;
+    /** Mask giving a slot from a hash. */
+    private final int _mask;
+    /** Board on which positions are explored. */
+    private final Board _board = new Board(Defaults.BOARD_SIZE);
+    /** Legal moves at each ply of the current line. */
+    private int[][] _moves = new int[0][];
+    /** Canonical keys of the children of the position at each ply. */
+    private long[][] _childKeys = new long[0][];
+    /** Positions visited and allowed in the current solve. */
+    private long _nodes, _maxNodes;
+    /** Winning move found by the last solve, or -1. */
+    private int _move = -1;
+}
@@ -2,11 +2,43 @@
  * University of California.  All rights reserved. */
 package jump61;
 
-/** An object that formats and sends messages and errors.
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Formatter;
+
+/** An object that formats and sends messages and errors.  Messages are
+ *  formatted into a buffer that is written out only at each flush (which
+ *  the Game requests before prompting and on exit) or when it exceeds
+ *  BUFFER_LIMIT characters, so that a burst of output costs one write.
+ *  Errors are written at once, after any buffered messages, to the error
+ *  stream and the transcript (if any), never to the output.
  *  @author P. N. Hilfinger
  */
 class TextReporter implements Reporter {
 
+    /** Number of characters of messages buffered before they are written
+     *  without waiting for a flush. */
+    static final int BUFFER_LIMIT = 1 << 13;
+
+    /** A reporter that writes to the standard output and error. */
+    TextReporter() {
+        this(System.out, System.err);
+    }
+
+    /** A reporter that writes messages to OUT and errors to ERR. */
+    TextReporter(PrintStream out, PrintStream err) {
+        _out = out;
+        _err = err;
+    }
+
+    /** Also copy all my output, including errors, to TRANSCRIPT, which I
+     *  flush when I flush, or stop copying if TRANSCRIPT is null.  An
+     *  AsyncWriter keeps a slow transcript from delaying the game. */
+    synchronized void setTranscript(Writer transcript) {
+        _transcript = transcript;
+    }
+
     @Override
     public void announceWin(Side side) {
         msg("* %s wins.", side.toCapitalizedString());
@@ -19,14 +51,80 @@ class TextReporter implements Reporter {
 
     @Override
     public void msg(String format, Object... args) {
-        System.out.printf(format, args);
-        System.out.println();
+        emit(format, args);
+    }
+
+    @Override
+    public synchronized void err(String format, Object... args) {
+        flush();
+        String text = String.format(format, args);
+        _err.println(text);
+        transcribe(text + EOL);
     }
 
     @Override
-    public void err(String format, Object... args) {
-        System.err.printf(format, args);
-        System.err.println();
+    public void log(String format, Object... args) {
+        emit(format, args);
     }
 
+    @Override
+    public void analysis(String format, Object... args) {
+        emit(format, args);
+        flush();
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (_buffer.length() == 0) {
+            return;
+        }
+        _out.append(_buffer);
+        _out.flush();
+        transcribe(_buffer);
+        _buffer.setLength(0);
+    }
+
+    /** Copy TEXT to my transcript, if any, and flush it.  Stops copying
+     *  (with a report) if the transcript cannot be written. */
+    private synchronized void transcribe(CharSequence text) {
+        if (_transcript != null) {
+            try {
+                _transcript.append(text);
+                _transcript.flush();
+            } catch (IOException excp) {
+                _transcript = null;
+                _err.printf("transcript stopped: %s%n", excp.getMessage());
+            }
+        }
+    }
+
+    /** Buffer the line formed from FORMAT and ARGS, as for
+     *  String.format. */
+    private synchronized void emit(String format, Object... args) {
+        if (format.equals("%s") && args.length == 1
+            && args[0] instanceof CharSequence) {
+            _buffer.append((CharSequence) args[0]);
+        } else {
+            _formatter.format(format, args);
+        }
+        _buffer.append(EOL);
+        if (_buffer.length() >= BUFFER_LIMIT) {
+            flush();
+        }
+    }
+
+    /** Line separator. */
+    private static final String EOL = System.lineSeparator();
+
+    /** Destination of messages. */
+    private final PrintStream _out;
+    /** Destination of error reports. */
+    private final PrintStream _err;
+    /** Copy of all output, or null. */
+    private Writer _transcript;
+    /** Messages not yet written. */
+    private final StringBuilder _buffer = new StringBuilder();
+    /** Formats messages into _buffer. */
+    private final Formatter _formatter = new Formatter(_buffer);
+
 }
@@ -0,0 +1,37 @@
+package jump61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of TextReporter.
+ *  @author Tianyi Xu
+ */
+public class TextReporterTest {
+
+    /** Line separator. */
+    private static final String EOL = System.lineSeparator();
+
+    @Test
+    public void testTranscriptKeepsErrorsOffOutput() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(),
+            err = new ByteArrayOutputStream();
+        StringWriter transcript = new StringWriter();
+        TextReporter reporter =
+            new TextReporter(new PrintStream(out, true),
+                             new PrintStream(err, true));
+        reporter.setTranscript(transcript);
+        reporter.msg("first");
+        reporter.err("bad move: %d %d", 1, 2);
+        reporter.announceMove(2, 2);
+        reporter.flush();
+        assertEquals("first" + EOL + "* 2 2." + EOL, out.toString());
+        assertEquals("bad move: 1 2" + EOL, err.toString());
+        assertEquals("first" + EOL + "bad move: 1 2" + EOL + "* 2 2." + EOL,
+                     transcript.toString());
+    }
+
+}
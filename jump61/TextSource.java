@@ -1,5 +1,6 @@
 package jump61;
 
+import java.io.PrintStream;
 import java.io.Reader;
 import java.util.Scanner;
 import java.util.ArrayList;
@@ -13,6 +14,13 @@ class TextSource implements CommandSource {
     /** A source of commands read from the concatenation of the content of
      *  READERS. */
     TextSource(List<Reader> readers) {
+        this(readers, System.out);
+    }
+
+    /** A source of commands read from the concatenation of the content of
+     *  READERS that writes its prompts on PROMPTS. */
+    TextSource(List<Reader> readers, PrintStream prompts) {
+        _prompts = prompts;
         if (readers.isEmpty()) {
             throw new IllegalArgumentException("must be at least one reader");
         }
@@ -23,8 +31,8 @@ class TextSource implements CommandSource {
     @Override
     public String getCommand(String prompt) {
         if (prompt != null) {
-            System.out.print(prompt);
-            System.out.flush();
+            _prompts.print(prompt);
+            _prompts.flush();
         }
         if (_inp.hasNextLine()) {
             return _inp.nextLine();
@@ -40,4 +48,6 @@ class TextSource implements CommandSource {
     private Scanner _inp;
     /** Readers to use after the first. */
     private ArrayList<Reader> _readers;
+    /** Destination of prompts. */
+    private final PrintStream _prompts;
 }
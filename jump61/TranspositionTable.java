@@ -0,0 +1,85 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A fixed-size hash table of search results, indexed by the canonical
+ *  keys of positions (see Board.canonicalKey), so that positions that
+ *  are rotations or reflections of one another share an entry.  Each
+ *  entry records the depth to which a position was searched and the
+ *  value found, which is exact or a bound depending on whether it fell
+ *  inside the search window.  Values are from Red's point of view and
+ *  so do not depend on orientation.  Not thread-safe: each searcher has
+ *  its own table.
+ *  @author Tianyi Xu
+ */
+class TranspositionTable {
+
+    /** Kinds of value: exact, a lower bound, or an upper bound. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** Result of probe for a position not in the table. */
+    static final long MISSING = 0;
+
+    /** A table of 2**BITS entries. */
+    TranspositionTable(int bits) {
+        _keys = new long[1 << bits];
+        _data = new long[1 << bits];
+        _mask = (1 << bits) - 1;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, MISSING);
+    }
+
+    /** Return the entry for the position whose canonical key is KEY, or
+     *  MISSING if there is none.  Use depth, value, and bound to unpack
+     *  it. */
+    long probe(long key) {
+        int h = index(key);
+        return _keys[h] == key ? _data[h] : MISSING;
+    }
+
+    /** Record that searching the position whose canonical key is KEY to
+     *  DEPTH found VALUE, whose kind is BOUND.  Replaces the previous
+     *  entry in the same slot unless that was for the same position
+     *  searched more deeply. */
+    void store(long key, int depth, int value, int bound) {
+        int h = index(key);
+        if (_keys[h] == key && _data[h] != MISSING
+            && depth(_data[h]) > depth) {
+            return;
+        }
+        _keys[h] = key;
+        _data[h] = (value & 0xffffffffL) | ((long) depth << 32)
+            | ((long) bound << 48);
+    }
+
+    /** Return the search depth of ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xffff;
+    }
+
+    /** Return the value of ENTRY. */
+    static int value(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the kind of value (EXACT, LOWER, or UPPER) of ENTRY. */
+    static int bound(long entry) {
+        return (int) (entry >>> 48) & 3;
+    }
+
+    /** Return the slot for KEY. */
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & _mask;
+    }
+
+    /** Keys of the positions in each slot. */
+    private final long[] _keys;
+    /** Packed entries (see store) for each slot. */
+    private final long[] _data;
+    /** Mask selecting a slot number from a hash. */
+    private final int _mask;
+}
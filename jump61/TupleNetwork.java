@@ -0,0 +1,425 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static jump61.Side.*;
+import static jump61.GameException.error;
+
+/** An n-tuple network evaluation of Jump61 positions on boards of one
+ *  size.  Each tuple is a short sequence of squares (a row, a 2x3 block,
+ *  or the corner triangle), and has a table of weights with one entry for
+ *  each way of filling its squares.  A position's value is the sum of
+ *  the entries selected by its tuples, plus a weight for the side to
+ *  move, in units of log-odds of a Red win, as for an Evaluator.  Each
+ *  tuple is placed at its images under all SYMMETRIES symmetries of the
+ *  board, all sharing its table, so that symmetric positions have equal
+ *  values.
+ *
+ *  A square is described to a tuple by one of STATES states: 0 for a
+ *  white square, and otherwise 1 + 4 * (side ordinal - 1) + the number
+ *  of spots it lacks to be critical.  Since a square's state depends only
+ *  on its own contents, a Board can keep the sum for its position up to
+ *  date as its squares change (see Board.setNetwork), at a cost of one
+ *  table lookup per tuple through the changed square, making evaluation
+ *  itself a single read.
+ *
+ *  The weights are trained by TupleTrainer and kept in a weights file: a
+ *  HEADER_SIZE-byte header (MAGIC, VERSION, board size, number of weights,
+ *  the bound returned by quietSwing, as a float, and, at offset 24, the
+ *  checksum returned by checksum, as a long), followed by the
+ *  weights as floats, all little-endian.  read maps the file rather
+ *  than reading it, so that startup costs nothing and processes using
+ *  the same file share one copy of it.  A TupleNetwork holds no scratch
+ *  space, and any number of threads may use one at once.
+ *  @author Tianyi Xu
+ */
+class TupleNetwork {
+
+    /** First word of a weights file ("J61N"). */
+    static final int MAGIC = 0x4a36314e;
+
+    /** Version of the file format. */
+    static final int VERSION = 2;
+
+    /** Size in bytes of the file header. */
+    static final int HEADER_SIZE = 64;
+
+    /** Number of states of a square. */
+    static final int STATES = 9;
+
+    /** Largest number of squares in a tuple. */
+    static final int MAX_TUPLE = 6;
+
+    /** A network, with all weights 0, for N x N boards.  Its weights are
+     *  held in an array (see array), for training. */
+    TupleNetwork(int N) {
+        this(N, null);
+        _array = new float[_numWeights];
+        _weights = FloatBuffer.wrap(_array);
+    }
+
+    /** A network for the same size of board as NETWORK, whose weights
+     *  are held in an array initially containing NETWORK's. */
+    TupleNetwork(TupleNetwork network) {
+        this(network.size());
+        network._weights.get(0, _array);
+    }
+
+    /** A network for N x N boards whose weights are WEIGHTS, which must
+     *  be set later if null. */
+    private TupleNetwork(int N, FloatBuffer weights) {
+        _size = N;
+        _weights = weights;
+        _capacity = new int[N * N];
+        Board board = new Board(N);
+        for (int n = 0; n < N * N; n += 1) {
+            _capacity[n] = board.neighbors(n);
+        }
+        List<int[]> placements = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int offset = 0;
+        for (int[] tuple : tuples(N)) {
+            List<int[]> images = new ArrayList<>();
+            for (int t = 0; t < Board.SYMMETRIES; t += 1) {
+                int[] image = new int[tuple.length];
+                for (int i = 0; i < tuple.length; i += 1) {
+                    image[i] = Board.transform(t, tuple[i], N);
+                }
+                if (images.stream().noneMatch(p -> Arrays.equals(p, image))) {
+                    images.add(image);
+                    placements.add(image);
+                    offsets.add(offset);
+                }
+            }
+            offset += power(tuple.length);
+        }
+        _tempo = offset;
+        _numWeights = offset + 2;
+        _placements = placements.toArray(new int[0][]);
+        _offsets = offsets.stream().mapToInt(Integer::intValue).toArray();
+        int[] counts = new int[N * N];
+        for (int[] placement : _placements) {
+            for (int n : placement) {
+                counts[n] += 1;
+            }
+        }
+        _squarePlacements = new int[N * N][];
+        _squarePowers = new int[N * N][];
+        for (int n = 0; n < N * N; n += 1) {
+            _squarePlacements[n] = new int[counts[n]];
+            _squarePowers[n] = new int[counts[n]];
+            counts[n] = 0;
+        }
+        for (int p = 0; p < _placements.length; p += 1) {
+            for (int i = 0; i < _placements[p].length; i += 1) {
+                int n = _placements[p][i];
+                _squarePlacements[n][counts[n]] = p;
+                _squarePowers[n][counts[n]] = power(i);
+                counts[n] += 1;
+            }
+        }
+    }
+
+    /** Return the tuples used on N x N boards, as arrays of square
+     *  numbers: the first rows (as many as MAX_TUPLE squares of each) up
+     *  to the middle of the board, 2x3 blocks at the corner and one step
+     *  in from it, and the triangle of six squares at the corner. */
+    private static List<int[]> tuples(int N) {
+        List<int[]> result = new ArrayList<>();
+        int len = Math.min(N, MAX_TUPLE);
+        for (int r = 0; r <= (N - 1) / 2; r += 1) {
+            int[] row = new int[len];
+            for (int c = 0; c < len; c += 1) {
+                row[c] = r * N + c;
+            }
+            result.add(row);
+        }
+        for (int k = 0; k < 2 && k + 3 <= N; k += 1) {
+            int n = k * N + k;
+            result.add(new int[] { n, n + 1, n + 2, n + N, n + N + 1,
+                                   n + N + 2 });
+        }
+        if (N >= 3) {
+            result.add(new int[] { 0, 1, 2, N, N + 1, 2 * N });
+        }
+        return result;
+    }
+
+    /** Return the network in the weights file FILENAME, which is mapped
+     *  read-only. */
+    static TupleNetwork read(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        MappedByteBuffer buffer;
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        long size = buffer.capacity();
+        int N = size < HEADER_SIZE ? 0 : buffer.getInt(8);
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION
+            || N < 2 || N > Defaults.MAX_BOARD_SIZE) {
+            throw error("%s is not a weights file", fileName);
+        }
+        TupleNetwork network = new TupleNetwork(N, null);
+        if (buffer.getInt(12) != network._numWeights
+            || size < HEADER_SIZE + 4L * network._numWeights) {
+            throw error("%s is not a weights file for %dx%d boards",
+                        fileName, N, N);
+        }
+        network._weights =
+            buffer.slice(HEADER_SIZE, 4 * network._numWeights)
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        network._swing = buffer.getFloat(16);
+        network._checksum = buffer.getLong(24);
+        return network;
+    }
+
+    /** Write my weights to the weights file FILENAME.  The file is
+     *  replaced as a whole, so that processes that have mapped the old
+     *  one are not disturbed. */
+    void write(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+        ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE
+                                                  + 4 * _numWeights);
+        contents.order(ByteOrder.LITTLE_ENDIAN);
+        contents.putInt(MAGIC).putInt(VERSION).putInt(_size)
+            .putInt(_numWeights).putFloat((float) swing());
+        contents.putLong(24, checksum());
+        FloatBuffer weights =
+            contents.position(HEADER_SIZE).slice()
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        for (int w = 0; w < _numWeights; w += 1) {
+            weights.put(w, _weights.get(w));
+        }
+        contents.rewind();
+        try (FileChannel channel =
+             FileChannel.open(temp, StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE)) {
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Return the size of the boards I evaluate. */
+    int size() {
+        return _size;
+    }
+
+    /** Return my weights if they are held in an array (as for a network
+     *  being trained), or else null.  The array is mine. */
+    float[] array() {
+        return _array;
+    }
+
+    /** Return the number of my weights. */
+    int numWeights() {
+        return _numWeights;
+    }
+
+    /** Return the number of placed tuples, and so of table entries (not
+     *  counting the weight for the side to move) summed for a value. */
+    int placements() {
+        return _placements.length;
+    }
+
+    /** Store in INDEX[0 .. placements()-1] the index of the weight
+     *  selected by each placed tuple on BOARD, which must be of my size,
+     *  and return the sum of those weights. */
+    double reset(Board board, int[] index) {
+        double sum = 0.0;
+        for (int p = 0; p < _placements.length; p += 1) {
+            int k = 0;
+            int[] placement = _placements[p];
+            for (int i = placement.length - 1; i >= 0; i -= 1) {
+                int n = placement[i];
+                Square sq = board.get(n);
+                k = k * STATES
+                    + state(n, 16 * sq.getSide().ordinal() + sq.getSpots());
+            }
+            index[p] = _offsets[p] + k;
+            sum += _weights.get(index[p]);
+        }
+        return sum;
+    }
+
+    /** Update the weight indices INDEX (as set by reset) for a change of
+     *  square #N from code OLD to code CODE (see BoardListener), and
+     *  return the resulting change in the sum of the selected weights. */
+    double update(int n, int old, int code, int[] index) {
+        int change = state(n, code) - state(n, old);
+        if (change == 0) {
+            return 0.0;
+        }
+        double delta = 0.0;
+        int[] placements = _squarePlacements[n], powers = _squarePowers[n];
+        for (int j = 0; j < placements.length; j += 1) {
+            int p = placements[j];
+            int k = index[p];
+            index[p] = k + change * powers[j];
+            delta += _weights.get(index[p]) - _weights.get(k);
+        }
+        return delta;
+    }
+
+    /** Return a checksum of my size and weights, which differs (almost
+     *  surely) between networks that value some position differently.
+     *  Kept in the header of a weights file, so that it costs nothing to
+     *  get for a network that has been read, and computed on each call
+     *  for one in training. */
+    long checksum() {
+        if (_array == null && _checksum != 0) {
+            return _checksum;
+        }
+        long sum = _size;
+        for (int w = 0; w < _numWeights; w += 1) {
+            sum = sum * 1_000_003 + Float.floatToIntBits(_weights.get(w));
+        }
+        return sum == 0 ? 1 : sum;
+    }
+
+    /** Return the index of the weight for SIDE being to move. */
+    int tempoIndex(Side side) {
+        return _tempo + (side == RED ? 0 : 1);
+    }
+
+    /** Return my value for BOARD, which must be of my size, in log-odds
+     *  of a Red win.  Takes the sum of weights from BOARD if it keeps it
+     *  for me, and otherwise computes it afresh. */
+    double value(Board board) {
+        double sum;
+        if (board.network() == this) {
+            sum = board.networkSum();
+        } else {
+            sum = reset(board, new int[_placements.length]);
+        }
+        return sum + _weights.get(tempoIndex(board.whoseMove()));
+    }
+
+    /** Return my value for BOARD (positive favoring Red), which must not
+     *  be won, scaled as by Evaluator.eval.  The value lies strictly
+     *  between -LIMIT and LIMIT. */
+    int eval(Board board, int limit) {
+        long value = Math.round(Evaluator.SCALE * value(board));
+        return (int) Math.max(-limit + 1, Math.min(limit - 1, value));
+    }
+
+    /** Return a bound on how much a move that makes nothing jump can
+     *  change my value, as for Evaluator.quietSwing. */
+    int quietSwing() {
+        return (int) Math.ceil(Evaluator.SCALE * swing()) + 1;
+    }
+
+    /** Return the bound of quietSwing in log-odds: the most that changing
+     *  one square can change the weights selected, plus the difference
+     *  between the weights for the sides to move.  Computed once for a
+     *  network read from a file, and on each call for one in training. */
+    private double swing() {
+        if (_swing < 0 || _array != null) {
+            float[] range = new float[_placements.length];
+            for (int p = 0; p < _placements.length; p += 1) {
+                if (p > 0 && _offsets[p] == _offsets[p - 1]) {
+                    range[p] = range[p - 1];
+                    continue;
+                }
+                float lo = 0.0f, hi = 0.0f;
+                for (int k = 0; k < power(_placements[p].length); k += 1) {
+                    float w = _weights.get(_offsets[p] + k);
+                    lo = Math.min(lo, w);
+                    hi = Math.max(hi, w);
+                }
+                range[p] = hi - lo;
+            }
+            double most = 0.0;
+            for (int[] placements : _squarePlacements) {
+                double total = 0.0;
+                for (int p : placements) {
+                    total += range[p];
+                }
+                most = Math.max(most, total);
+            }
+            _swing = most + Math.abs(_weights.get(_tempo)
+                                     - _weights.get(_tempo + 1));
+        }
+        return _swing;
+    }
+
+    /** Return the state (see the class comment) of square #N when its
+     *  code is CODE.  An over-full square, met during a cascade, counts
+     *  as critical. */
+    private int state(int n, int code) {
+        int side = code >> 4;
+        if (side == 0) {
+            return 0;
+        }
+        int lack = Math.max(0, _capacity[n] - (code & 15));
+        return 1 + 4 * (side - 1) + lack;
+    }
+
+    /** Return STATES ** K. */
+    private static int power(int k) {
+        int result = 1;
+        for (int i = 0; i < k; i += 1) {
+            result *= STATES;
+        }
+        return result;
+    }
+
+    /** Return the network used by new AIs, or null if none. */
+    static TupleNetwork getDefault() {
+        return _default;
+    }
+
+    /** Make NETWORK the one used by AIs created from now on. */
+    static void setDefault(TupleNetwork network) {
+        _default = network;
+    }
+
+    /** Network for new AIs (set at startup from --network). */
+    private static volatile TupleNetwork _default;
+
+    /** Size of the boards I evaluate. */
+    private final int _size;
+    /** Number of neighbors of each square. */
+    private final int[] _capacity;
+    /** The squares of each placed tuple, least significant first. */
+    private final int[][] _placements;
+    /** Index of the first weight of the table of each placed tuple. */
+    private final int[] _offsets;
+    /** For each square, the placed tuples that include it... */
+    private final int[][] _squarePlacements;
+    /** ...and the multiplier of its state in each one's index. */
+    private final int[][] _squarePowers;
+    /** Index of the weight for Red to move, followed by that for Blue. */
+    private final int _tempo;
+    /** Number of weights. */
+    private final int _numWeights;
+    /** The weights. */
+    private FloatBuffer _weights;
+    /** The weights, if held in an array, or null. */
+    private float[] _array;
+    /** Cached result of swing, or negative if not yet computed. */
+    private double _swing = -1;
+    /** Checksum from my weights file, or 0 if not read from one. */
+    private long _checksum;
+}
@@ -0,0 +1,280 @@
+package jump61;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import static jump61.Side.*;
+
+/** Trains a TupleNetwork by temporal-difference learning (TD(lambda))
+ *  from games it plays against itself, one game per available core at a
+ *  time.  Usage:
+ *      java jump61.TupleTrainer WEIGHTS GAMES [SIZE [LAMBDA [RATE]]]
+ *  plays GAMES games on SIZE x SIZE boards (default 6), starting from the
+ *  network in the weights file WEIGHTS if there is one and otherwise from
+ *  all weights 0, and writes the result to WEIGHTS every CHECKPOINT games
+ *  and at the end, suitable for Main's --network option.  LAMBDA
+ *  (default 0.6) and RATE (default 0.2) are as described below.
+ *
+ *  After SelfPlay.RANDOM_PLIES random moves, each side plays the move
+ *  whose result the network values most highly for it, except that a
+ *  fraction EXPLORATION of moves are random, so that the network sees
+ *  positions it would otherwise avoid.  At the end of a game, the value
+ *  of each position reached is moved toward its lambda-return, working
+ *  back from the last: the last position's return is the outcome (1 for
+ *  a Red win and 0 for a Blue win), and each earlier position's is
+ *  LAMBDA times the next position's return plus 1 - LAMBDA times the
+ *  next position's predicted chance of a Red win (the logistic function
+ *  of its value).  Each step follows the gradient of the log loss, as in
+ *  Tuner, and is shared among the weights selected, so that RATE is the
+ *  most the value of a position can change in one step.
+ *
+ *  The workers update the shared weights without locking (in the style
+ *  of "Hogwild!" training): a game touches only a few thousand of the
+ *  millions of weights, so updates are rarely lost, and a lost update
+ *  does no harm beyond slowing learning slightly.
+ *  @author Tianyi Xu
+ */
+public class TupleTrainer {
+
+    /** Fraction of moves after the opening that are chosen at random. */
+    static final double EXPLORATION = 0.05;
+
+    /** Number of games between reports and between writes of the
+     *  weights file. */
+    static final int CHECKPOINT = 10_000;
+
+    /** Train a network as described in the class comment, according to
+     *  ARGS. */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java jump61.TupleTrainer WEIGHTS"
+                               + " GAMES [SIZE [LAMBDA [RATE]]]");
+            System.exit(1);
+        }
+        int games = Integer.parseInt(args[1]);
+        int size = args.length > 2 ? Integer.parseInt(args[2])
+            : Defaults.BOARD_SIZE;
+        double lambda = args.length > 3 ? Double.parseDouble(args[3]) : 0.6;
+        double rate = args.length > 4 ? Double.parseDouble(args[4]) : 0.2;
+        TupleNetwork network;
+        if (new File(args[0]).exists()) {
+            network = new TupleNetwork(TupleNetwork.read(args[0]));
+            if (network.size() != size) {
+                System.err.printf("%s is for %dx%d boards%n", args[0],
+                                  network.size(), network.size());
+                System.exit(1);
+            }
+        } else {
+            network = new TupleNetwork(size);
+        }
+        TupleTrainer trainer =
+            new TupleTrainer(network, lambda, rate, System.nanoTime());
+        trainer.train(games, args[0]);
+    }
+
+    /** A trainer for NETWORK, whose weights must be held in an array, with
+     *  the given LAMBDA and RATE, choosing random moves with a generator
+     *  seeded from SEED. */
+    TupleTrainer(TupleNetwork network, double lambda, double rate,
+                 long seed) {
+        _network = network;
+        _weights = network.array();
+        _lambda = lambda;
+        _rate = rate;
+        _seed = seed;
+    }
+
+    /** Play GAMES games, spread over all processors, learning from each,
+     *  and report progress on the standard error.  Write the weights to
+     *  the weights file FILENAME, if it is not null, every CHECKPOINT
+     *  games and at the end. */
+    void train(int games, String fileName)
+        throws InterruptedException, IOException {
+        AtomicInteger nextGame = new AtomicInteger();
+        Thread[] workers =
+            new Thread[Runtime.getRuntime().availableProcessors()];
+        _start = System.nanoTime();
+        for (int i = 0; i < workers.length; i += 1) {
+            workers[i] = new Thread(() -> {
+                Worker worker = new Worker();
+                for (int g = nextGame.getAndIncrement(); g < games;
+                     g = nextGame.getAndIncrement()) {
+                    worker.playGame(g);
+                    if ((g + 1) % CHECKPOINT == 0) {
+                        checkpoint(g + 1, fileName);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (_error != null) {
+            throw _error;
+        }
+        if (games % CHECKPOINT != 0) {
+            checkpoint(games, fileName);
+        }
+    }
+
+    /** Report progress after GAMES games and write my weights to the
+     *  weights file FILENAME, if it is not null. */
+    private synchronized void checkpoint(int games, String fileName) {
+        long positions = _positions.sumThenReset();
+        double loss = _loss.sumThenReset();
+        double secs = (System.nanoTime() - _start) * 1e-9;
+        System.err.printf("%d games in %.1f s (%.0f games/s),"
+                          + " mean loss %.4f%n", games, secs, games / secs,
+                          positions == 0 ? 0.0 : loss / positions);
+        if (fileName != null) {
+            try {
+                _network.write(fileName);
+            } catch (IOException excp) {
+                _error = excp;
+            }
+        }
+    }
+
+    /** A board and record of play reused for many games. */
+    private class Worker {
+
+        /** A worker playing on a board of my network's size. */
+        Worker() {
+            _board.setNetwork(_network);
+        }
+
+        /** Play game number GAME and learn from it, unless it is
+         *  abandoned after SelfPlay.MAX_MOVES_PER_SQUARE moves per
+         *  square. */
+        void playGame(int game) {
+            Random gen = new Random(_seed + game);
+            Board board = _board;
+            int N = _network.size();
+            board.clear(N);
+            _count = 0;
+            int maxMoves = SelfPlay.MAX_MOVES_PER_SQUARE * N * N;
+            for (int k = 0; board.getWinner() == null; k += 1) {
+                if (k >= maxMoves) {
+                    return;
+                }
+                Side player = board.whoseMove();
+                int count = board.legalMoves(player, _moves);
+                int move;
+                if (k < SelfPlay.RANDOM_PLIES
+                    || gen.nextDouble() < EXPLORATION) {
+                    move = _moves[gen.nextInt(count)];
+                } else {
+                    move = bestMove(board, player, count);
+                }
+                board.addSpot(player, move);
+                if (board.getWinner() == null) {
+                    record(board);
+                }
+            }
+            learn(board.getWinner() == RED ? 1.0 : 0.0);
+        }
+
+        /** Return the best of the COUNT moves _moves[0 .. COUNT-1] for
+         *  PLAYER on BOARD, according to my network. */
+        private int bestMove(Board board, Side player, int count) {
+            int sense = player == RED ? 1 : -1;
+            int best = _moves[0];
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i += 1) {
+                board.addSpot(player, _moves[i]);
+                boolean won = board.getWinner() != null;
+                double value = won ? 0.0 : sense * _network.value(board);
+                board.undo();
+                if (won) {
+                    return _moves[i];
+                } else if (value > bestValue) {
+                    best = _moves[i];
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        /** Add the weights that my network selects for BOARD to my
+         *  record of this game's positions. */
+        private void record(Board board) {
+            int width = _network.placements() + 1;
+            if ((_count + 1) * width > _record.length) {
+                _record = Arrays.copyOf(_record,
+                                        Math.max(2 * _record.length,
+                                                 16 * width));
+            }
+            _network.reset(board, _index);
+            System.arraycopy(_index, 0, _record, _count * width,
+                             width - 1);
+            _record[(_count + 1) * width - 1] =
+                _network.tempoIndex(board.whoseMove());
+            _count += 1;
+        }
+
+        /** Move the values of the positions in my record toward their
+         *  lambda-returns (see the class comment), given that OUTCOME is 1
+         *  if Red won and 0 if Blue did. */
+        private void learn(double outcome) {
+            int width = _network.placements() + 1;
+            double target = outcome;
+            double loss = 0.0;
+            for (int t = _count - 1; t >= 0; t -= 1) {
+                int base = t * width;
+                double value = 0.0;
+                for (int j = base; j < base + width; j += 1) {
+                    value += _weights[_record[j]];
+                }
+                double predicted = 1.0 / (1.0 + Math.exp(-value));
+                float step = (float) (_rate * (target - predicted) / width);
+                for (int j = base; j < base + width; j += 1) {
+                    _weights[_record[j]] += step;
+                }
+                loss -= target * Math.log(Math.max(predicted, 1e-12))
+                    + (1.0 - target) * Math.log(Math.max(1.0 - predicted,
+                                                         1e-12));
+                target = _lambda * target + (1.0 - _lambda) * predicted;
+            }
+            _loss.add(loss);
+            _positions.add(_count);
+        }
+
+        /** Board on which games are played. */
+        private final Board _board = new Board(_network.size());
+        /** Legal moves in the current position. */
+        private final int[] _moves =
+            new int[_network.size() * _network.size()];
+        /** Scratch space for the weights selected for a position. */
+        private final int[] _index = new int[_network.placements()];
+        /** The weights selected for each position of the current game,
+         *  placements() + 1 per position. */
+        private int[] _record = new int[0];
+        /** Number of positions in _record. */
+        private int _count;
+    }
+
+    /** The network trained. */
+    private final TupleNetwork _network;
+    /** Its weights. */
+    private final float[] _weights;
+    /** Weight of later returns in each position's return. */
+    private final double _lambda;
+    /** Largest change in a position's value in one step. */
+    private final double _rate;
+    /** Seed for the random moves of game #0. */
+    private final long _seed;
+    /** Time at which training started, from System.nanoTime. */
+    private long _start;
+    /** Positions learned from since the last report. */
+    private final LongAdder _positions = new LongAdder();
+    /** Total log loss since the last report. */
+    private final DoubleAdder _loss = new DoubleAdder();
+    /** The first error in writing the weights file, if any. */
+    private volatile IOException _error;
+}
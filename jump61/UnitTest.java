@@ -10,7 +10,10 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        System.exit(textui.runClasses(jump61.BoardTest.class));
+        System.exit(textui.runClasses(jump61.BoardTest.class,
+                                      jump61.GameSessionTest.class,
+                                      jump61.AITest.class,
+                                      jump61.TextReporterTest.class));
     }
 
 }
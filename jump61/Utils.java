@@ -51,19 +51,26 @@ class Utils {
      *  NAME will typically be a file name based in one of the directories
      *  in the class path.  */
     static void printHelpResource(String name, PrintStream out) {
+        out.print(helpResource(name));
+        out.flush();
+    }
+
+    /** Return the contents of the resource named NAME, as for
+     *  printHelpResource, with each line terminated by a newline. */
+    static String helpResource(String name) {
         try {
             InputStream resource =
                 Utils.class.getClassLoader().getResourceAsStream(name);
             BufferedReader str =
                 new BufferedReader(new InputStreamReader(resource));
+            StringBuilder text = new StringBuilder();
             for (String s = str.readLine(); s != null; s = str.readLine())  {
-                out.println(s);
+                text.append(s).append(System.lineSeparator());
             }
             str.close();
-            out.flush();
+            return text.toString();
         } catch (IOException excp) {
-            out.printf("No help found.");
-            out.flush();
+            return "No help found.";
         }
     }
 
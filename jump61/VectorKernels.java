@@ -0,0 +1,44 @@
+package jump61;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Kernels implemented with the (incubating) Java Vector API.  Requires
+ *  --add-modules jdk.incubator.vector both to compile and to run; see
+ *  Kernels.Chooser.
+ *  @author Tianyi Xu
+ */
+class VectorKernels implements Kernels {
+
+    /** Shape used for byte data. */
+    private static final VectorSpecies<Byte> BYTES =
+        ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public int countCritical(byte[] spots, byte[] capacity, byte[] sides,
+                             byte side) {
+        int num, n;
+        int bound = BYTES.loopBound(spots.length);
+        num = 0;
+        for (n = 0; n < bound; n += BYTES.length()) {
+            VectorMask<Byte> owned =
+                ByteVector.fromArray(BYTES, sides, n).eq(side);
+            VectorMask<Byte> full =
+                ByteVector.fromArray(BYTES, spots, n)
+                .eq(ByteVector.fromArray(BYTES, capacity, n));
+            num += owned.and(full).trueCount();
+        }
+        for (; n < spots.length; n += 1) {
+            if (sides[n] == side && spots[n] == capacity[n]) {
+                num += 1;
+            }
+        }
+        return num;
+    }
+
+    @Override
+    public String toString() {
+        return "vector/" + BYTES.length();
+    }
+}
@@ -9,4 +9,19 @@ interface View {
     /** Update the current view of the game according to BOARD. */
     void update(Board board);
 
+    /** Return a buffer in which the game's board should record each move
+     *  and its cascade (see Board.setCascadeEvents) before calling update,
+     *  or null if I have no use for them.  Called once, when the game is
+     *  created. */
+    default CascadeEvents cascadeEvents() {
+        return null;
+    }
+
+    /** Return an object to be told of each change to the game's board
+     *  (see Board.addListener), or null if I need only update.  Called
+     *  once, when the game is created. */
+    default BoardListener boardListener() {
+        return null;
+    }
+
 }